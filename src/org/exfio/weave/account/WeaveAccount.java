@@ -3,15 +3,16 @@ package org.exfio.weave.account;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.SecureRandom;
 import java.util.Properties;
 
 import org.exfio.weave.WeaveException;
 import org.exfio.weave.net.HttpClient;
+import org.exfio.weave.net.HttpConnectionPool;
 import org.exfio.weave.storage.StorageParams;
 import org.exfio.weave.util.Base64;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
 import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.crypto.RandomSource;
 
 public abstract class WeaveAccount {
 	
@@ -25,7 +26,11 @@ public abstract class WeaveAccount {
 	protected ApiVersion version    = null;
 	
 	public WeaveAccount() {
-		httpClient = new HttpClient();
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public WeaveAccount(HttpConnectionPool connectionPool) {
+		httpClient = new HttpClient(connectionPool);
 	}
 
 	public abstract void init(WeaveAccountParams params) throws WeaveException;
@@ -93,8 +98,7 @@ public abstract class WeaveAccount {
 		}
 		
 		//Random url safe string
-        SecureRandom rnd = new SecureRandom();
-        byte[] rndBin  = rnd.generateSeed(9);
+        byte[] rndBin  = RandomSource.getDefault().nextBytes(9);
         String rndText = Base64.encodeToString(rndBin, Base64.NO_PADDING | Base64.NO_WRAP | Base64.URL_SAFE);
 
 		return String.format("%s-%s-%s", username, baseHost, rndText);
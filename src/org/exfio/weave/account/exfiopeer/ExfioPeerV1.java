@@ -12,9 +12,7 @@ package org.exfio.weave.account.exfiopeer;
 
 import java.lang.AssertionError;
 import java.lang.Math;
-import java.security.SecureRandom;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.ArrayList;
@@ -28,6 +26,7 @@ import org.exfio.weave.account.exfiopeer.ClientAuthRequestMessage.ClientAuthVeri
 import org.exfio.weave.account.exfiopeer.comm.Client;
 import org.exfio.weave.account.exfiopeer.comm.Comms;
 import org.exfio.weave.account.exfiopeer.comm.Message;
+import org.exfio.weave.account.exfiopeer.comm.MessageWatcher;
 import org.exfio.weave.account.exfiopeer.comm.NoPublishedKeysException;
 import org.exfio.weave.account.exfiopeer.comm.StorageNotFoundException;
 import org.exfio.weave.account.exfiopeer.comm.Message.MessageSession;
@@ -38,6 +37,7 @@ import org.exfio.weave.client.WeaveClientFactory;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.Base64;
+import org.exfio.weave.crypto.RandomSource;
 
 
 public class ExfioPeerV1 {
@@ -79,7 +79,7 @@ public class ExfioPeerV1 {
 
 	public ExfioPeerV1(WeaveClient wc, String database) {	
 		try {
-			Connection jdbcDb = DriverManager.getConnection("jdbc:sqlite:" + database);
+			Connection jdbcDb = Comms.getDatabaseConnection(database);
 			init(wc, jdbcDb);
 		} catch (SQLException e) {
 			throw new AssertionError(e.getMessage());
@@ -150,10 +150,9 @@ public class ExfioPeerV1 {
 	}
 	
 	private String generateAuthCode(int chars) {
-		SecureRandom rnd = new SecureRandom();
 		Base32 b32codec = new Base32();
 		int bytes = (int)Math.ceil((double)chars * 5 / 8);
-        String authCode = b32codec.encodeToString(rnd.generateSeed(bytes));
+        String authCode = b32codec.encodeToString(RandomSource.getDefault().nextBytes(bytes));
 
         // Convert to uppercase, translate L and O to 8 and 9
 		authCode = authCode.toUpperCase()
@@ -241,6 +240,10 @@ public class ExfioPeerV1 {
 	public boolean isInitialised() throws WeaveException {
 		return comms.isInitialised();
 	}
+
+	public void close() throws WeaveException {
+		comms.close();
+	}
 	
 	public void initClientAuth(String clientName, String database) throws WeaveException {
 		Log.getInstance().debug("initClientAuth()");
@@ -412,6 +415,15 @@ public class ExfioPeerV1 {
 		return msgPending.toArray(new Message[0]);
 	}
 	
+	/**
+	 * createMessageWatcher()
+	 * 
+	 * Watch for new messages in background rather than polling processClientAuthMessages()
+	 */
+	public MessageWatcher createMessageWatcher() {
+		return new MessageWatcher(comms);
+	}
+	
 	public Message[] processClientAuthMessages() throws WeaveException {
 		Log.getInstance().debug("processClientAuthMessages()");
 
@@ -15,15 +15,22 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import lombok.Getter;
 import lombok.Setter;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
 import java.security.KeyPair;
 import java.security.SecureRandom;
 
@@ -35,6 +42,7 @@ import org.exfio.weave.account.exfiopeer.comm.StorageNotFoundException;
 import org.exfio.weave.account.exfiopeer.comm.Client.EphemeralKey;
 import org.exfio.weave.account.exfiopeer.comm.Message.MessageSession;
 import org.exfio.weave.account.exfiopeer.crypto.ECDH;
+import org.exfio.weave.account.exfiopeer.crypto.EphemeralKeyPool;
 import org.exfio.weave.account.legacy.LegacyV5AccountParams;
 import org.exfio.weave.client.WeaveClient;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
@@ -48,6 +56,9 @@ public class Comms {
 	public static final String PROTO_VERSION = "1";
 	
 	public static final int CLIENT_EPHEMERAL_KEYS_NUM = 10;
+
+	//Number of checks a message may fail before it is deleted without being processed
+	public static final int MESSAGE_RETRY_LIMIT = 5;
 	
 	public static final String KEY_META_PATH         = "meta/exfio";
 	public static final String KEY_META_COLLECTION   = "meta";
@@ -55,13 +66,25 @@ public class Comms {
 
 	//Client config
 	public static final String KEY_CLIENT_CONFIG_LASTMESSAGEPOLL = "lastcheckedmessages";
+	public static final String KEY_CLIENT_CONFIG_MESSAGEFAILURES = "messagefailures";
 
 	
 	private WeaveClient wc;
+
+	//Connection, its unit of work and statement cache are not thread safe, hence methods that use db
+	//synchronize on this Comms instance, e.g. so that MessageWatcher can check messages in background.
+	//The monitor is only held for local storage access, never across requests to the server
 	private Connection db;
 	private CommsApiV1 commsApi;
+
+	//Serialise updates of client record and message checks, and sending of messages, respectively
+	private final Object syncLock = new Object();
+	private final Object sendLock = new Object();
 	
 	@Getter @Setter private boolean authorised;
+
+	//Shared by clients unless set, see EphemeralKeyPool
+	@Setter private EphemeralKeyPool ephemeralKeyPool = EphemeralKeyPool.getDefault();
 	
 	@Getter private Client clientSelf;
 	@Getter private String clientId;
@@ -100,6 +123,13 @@ public class Comms {
 		this.db       = db;
 		this.commsApi = new CommsApiV1(wc);
 
+		//Existing databases may predate current schema version
+		try {
+			CommsStorage.upgradeDB(db);
+		} catch (SQLException e) {
+			throw new AssertionError("Couldn't upgrade local storage - " + e.getMessage());
+		}
+		
 		//load client info from local storage
 		try {
 			clientSelf = CommsStorage.getClientSelf(db);
@@ -130,7 +160,7 @@ public class Comms {
 		commsApi.initServer(PROTO_VERSION);
 	}
 	
-	public EphemeralKey getEphemeralKey(String cId, String keyId) throws StorageNotFoundException, WeaveException {
+	public synchronized EphemeralKey getEphemeralKey(String cId, String keyId) throws StorageNotFoundException, WeaveException {
 		try {
 			return CommsStorage.getEphemeralKey(db, cId, keyId);
 		} catch (SQLException e) {
@@ -138,12 +168,35 @@ public class Comms {
 		}
 	}
 	
+	/**
+	 * getDB()
+	 * 
+	 * Callers using the connection directly must synchronize on this Comms instance
+	 */
 	public Connection getDB() {
 		return db;
 	}
 	
 	public static Connection getDatabaseConnection(String database) throws SQLException {
-		return DriverManager.getConnection("jdbc:sqlite:" + database);
+		return CommsStorage.openConnection(database);
+	}
+
+	/**
+	 * close()
+	 * 
+	 * Close cached statements and database connection
+	 */
+	public synchronized void close() throws WeaveException {
+		if ( db == null ) {
+			return;
+		}
+		try {
+			CommsStorage.closeConnection(db);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't close comms database - " + e.getMessage());
+		} finally {
+			db = null;
+		}
 	}
 
 	public void initClient(String name, boolean isAuthorised, String database) throws WeaveException {
@@ -167,44 +220,46 @@ public class Comms {
 	public void initClient(String name, boolean isAuthorised, Connection db, String clientId) throws WeaveException {
 		Log.getInstance().debug("initClient()");
 		
-		this.clientId   = clientId;
-		this.clientName = name;		
-		this.db         = db;
+		synchronized (this) {
+			this.clientId   = clientId;
+			this.clientName = name;		
+			this.db         = db;
 		
-		//Initialise database
-		try {
-			CommsStorage.initDB(db, true);
-		} catch (SQLException e) {
-			throw new WeaveException("Couldn't initialise database - " + e.getMessage());
-		}
+			//Initialise database
+			try {
+				CommsStorage.initDB(db, true);
+			} catch (SQLException e) {
+				throw new WeaveException("Couldn't initialise database - " + e.getMessage());
+			}
 		
-		//Generate ECDH keypair
-		ECDH ecdh = new ECDH();
-		identityKeyPair = ecdh.generateECDHKeyPair();
+			//Generate ECDH keypair
+			ECDH ecdh = new ECDH();
+			identityKeyPair = ecdh.generateECDHKeyPair();
 		
-		identityPublicKey  = Base64.encodeBase64String(identityKeyPair.getPublic().getEncoded());
-        identityPrivateKey = Base64.encodeBase64String(identityKeyPair.getPrivate().getEncoded());
+			identityPublicKey  = Base64.encodeBase64String(identityKeyPair.getPublic().getEncoded());
+	        identityPrivateKey = Base64.encodeBase64String(identityKeyPair.getPrivate().getEncoded());
 
-        //Create client record for self
-        clientSelf = new Client();
-        clientSelf.setClientId(clientId);
-        clientSelf.setSelf(true);
-        clientSelf.setClientName(clientName);
-		clientSelf.setPublicKey(identityPublicKey);
-		clientSelf.setPrivateKey(identityPrivateKey);
-        clientSelf.setStatus(isAuthorised ? "authorised" : "pending");
-        clientSelf.setAuthLevel("all");
-		clientSelf.setVersion(PROTO_VERSION);
-		try {
-			CommsStorage.createClient(db, clientSelf);
-		} catch (SQLException e) {
-			throw new WeaveException("Couldn't create client record - " + e.getMessage());
+	        //Create client record for self
+	        clientSelf = new Client();
+	        clientSelf.setClientId(clientId);
+	        clientSelf.setSelf(true);
+	        clientSelf.setClientName(clientName);
+			clientSelf.setPublicKey(identityPublicKey);
+			clientSelf.setPrivateKey(identityPrivateKey);
+	        clientSelf.setStatus(isAuthorised ? "authorised" : "pending");
+	        clientSelf.setAuthLevel("all");
+			clientSelf.setVersion(PROTO_VERSION);
+			try {
+				CommsStorage.createClient(db, clientSelf);
+			} catch (SQLException e) {
+				throw new WeaveException("Couldn't create client record - " + e.getMessage());
+			}
 		}
 		
 		updateClient();
 	}
 
-	public String getProperty(String key, String defaultValue) throws WeaveException {
+	public synchronized String getProperty(String key, String defaultValue) throws WeaveException {
 		try {
 			return CommsStorage.getProperty(db, key, defaultValue);
 		} catch (SQLException e) {
@@ -212,7 +267,7 @@ public class Comms {
 		}
 	}
 
-	public String getProperty(String key) throws StorageNotFoundException, WeaveException {
+	public synchronized String getProperty(String key) throws StorageNotFoundException, WeaveException {
 		try {
 			return CommsStorage.getProperty(db, key);
 		} catch (SQLException e) {
@@ -220,7 +275,7 @@ public class Comms {
 		}
 	}
 
-	public boolean hasProperty(String key) throws WeaveException {
+	public synchronized boolean hasProperty(String key) throws WeaveException {
 		try {
 			return CommsStorage.hasProperty(db, key);
 		} catch (SQLException e) {
@@ -228,7 +283,7 @@ public class Comms {
 		}
 	}
 
-	public void setProperty(String key, String value) throws WeaveException {
+	public synchronized void setProperty(String key, String value) throws WeaveException {
 		try {
 			CommsStorage.setProperty(db, key, value);
 		} catch (SQLException e) {
@@ -236,7 +291,7 @@ public class Comms {
 		}
 	}
 
-	public void deleteProperty(String key) throws StorageNotFoundException, WeaveException {
+	public synchronized void deleteProperty(String key) throws StorageNotFoundException, WeaveException {
 		try {
 			CommsStorage.deleteProperty(db, key);
 		} catch (SQLException e) {
@@ -244,7 +299,7 @@ public class Comms {
 		}
 	}
 
-	public Client getClient(String clientId) throws StorageNotFoundException, WeaveException {
+	public synchronized Client getClient(String clientId) throws StorageNotFoundException, WeaveException {
 		try {
 			return CommsStorage.getClient(db, clientId);
 		} catch (SQLException e) {
@@ -252,7 +307,7 @@ public class Comms {
 		}
 	}
 
-	public Client[] getClients() throws WeaveException {
+	public synchronized Client[] getClients() throws WeaveException {
 		try {
 			return CommsStorage.getClients(db);
 		} catch (SQLException e) {
@@ -263,71 +318,86 @@ public class Comms {
 	public void updateClient() throws StorageNotFoundException, WeaveException {
 		Log.getInstance().debug("updateClient()");
 		
-		
-		//List<EphemeralKey> ephemeralKeys = clientSelf.getEphemeralKeys();
-		List<EphemeralKey> ephemeralKeys = null;
-		try {
-			ephemeralKeys = new ArrayList<EphemeralKey>(Arrays.asList(CommsStorage.getClientEphemeralKeys(db, clientId)));
-		} catch (SQLException e) {
-			throw new WeaveException(String.format("Couldn't load ephemeral keys for client '%s'", clientId));
-		}
-		
-		//Only published keys are synced with server
-		List<EphemeralKey> publishedKeys = new ArrayList<EphemeralKey>();
-		Iterator<EphemeralKey> iter = ephemeralKeys.listIterator();
-		while ( iter.hasNext() ) {
-			EphemeralKey eKey = iter.next();
-			if ( eKey.getStatus().equals("published") ) {
-				publishedKeys.add(eKey);
+		synchronized (syncLock) {
+			//List<EphemeralKey> ephemeralKeys = clientSelf.getEphemeralKeys();
+			List<EphemeralKey> ephemeralKeys = null;
+			synchronized (this) {
+				try {
+					ephemeralKeys = new ArrayList<EphemeralKey>(Arrays.asList(CommsStorage.getClientEphemeralKeys(db, clientId)));
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't load ephemeral keys for client '%s'", clientId));
+				}
 			}
-		}
-		
-		if ( isAuthorised() ) {
-			//If client is authorised ensure CLIENT_EPHEMERAL_KEYS_NUM ephemeral keys are published			
 			
-			ECDH ecdh = new ECDH();
+			//Only published keys are synced with server
+			List<EphemeralKey> publishedKeys = new ArrayList<EphemeralKey>();
+			List<EphemeralKey> newKeys       = new ArrayList<EphemeralKey>();
+			Iterator<EphemeralKey> iter = ephemeralKeys.listIterator();
+			while ( iter.hasNext() ) {
+				EphemeralKey eKey = iter.next();
+				if ( eKey.getStatus().equals("published") ) {
+					publishedKeys.add(eKey);
+				}
+			}
 			
-			while ( publishedKeys.size() < CLIENT_EPHEMERAL_KEYS_NUM ) {
+			if ( isAuthorised() ) {
+				//If client is authorised ensure CLIENT_EPHEMERAL_KEYS_NUM ephemeral keys are published			
 				
-				//Generate new ephemeral key
-				String ephemeralKeyId = wc.generateWeaveID();
-				KeyPair ephemeralKeyPair = ecdh.generateECDHKeyPair();
-				String ephemeralPublicKey  = Base64.encodeBase64String(ephemeralKeyPair.getPublic().getEncoded());
-		        String ephemeralPrivateKey = Base64.encodeBase64String(ephemeralKeyPair.getPrivate().getEncoded());
-		        
-		        //Save ephemeral key to database
-		        Client.EphemeralKey eKey = new Client.EphemeralKey();
-		        eKey.setKeyId(ephemeralKeyId);
-		        eKey.setPublicKey(ephemeralPublicKey);
-		        eKey.setPrivateKey(ephemeralPrivateKey);
-		        eKey.setStatus("published");
-	
-		        ephemeralKeys.add(eKey);
-		        publishedKeys.add(eKey);
+				//Key pairs are pre-generated in background
+				int numKeys = CLIENT_EPHEMERAL_KEYS_NUM - publishedKeys.size();
+				if ( numKeys > 0 ) {
+					for (KeyPair ephemeralKeyPair: ephemeralKeyPool.take(numKeys)) {
+						
+						//Generate new ephemeral key
+						String ephemeralKeyId = wc.generateWeaveID();
+						String ephemeralPublicKey  = Base64.encodeBase64String(ephemeralKeyPair.getPublic().getEncoded());
+				        String ephemeralPrivateKey = Base64.encodeBase64String(ephemeralKeyPair.getPrivate().getEncoded());
+				        
+				        Client.EphemeralKey eKey = new Client.EphemeralKey();
+				        eKey.setKeyId(ephemeralKeyId);
+				        eKey.setPublicKey(ephemeralPublicKey);
+				        eKey.setPrivateKey(ephemeralPrivateKey);
+				        eKey.setStatus("published");
+			
+				        newKeys.add(eKey);
+				        publishedKeys.add(eKey);
+					}
+				}
 			}
+			
+			Client client = null;
+			synchronized (this) {
+				//Save client and new ephemeral keys in a single transaction
+				try {
+					CommsStorage.UnitOfWork uow = CommsStorage.beginUnitOfWork(db);
+					try {
+						clientSelf.setEphemeralKeys(ephemeralKeys);
+						CommsStorage.updateClient(db, clientSelf);
+						CommsStorage.createEphemeralKeys(db, clientId, newKeys);
+						uow.commit();
+					} finally {
+						uow.close();
+					}
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't save client '%s' to local storage - %s", clientId, e.getMessage()));
+				}
+				ephemeralKeys.addAll(newKeys);
+				clientSelf.setEphemeralKeys(ephemeralKeys);
+				
+				//Re-load client from local storage and add only published keys
+				try {
+					client = CommsStorage.getClient(db, clientId);
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't load client '%s' from local storage - %s", clientId, e.getMessage()));
+				}
+			}
+	
+			//Sync client and published ephemeral keys with server
+			client.setEphemeralKeys(publishedKeys);
+			commsApi.putClient(client);
+			
+			updateOtherClients();
 		}
-		
-		//Save client and updated list of ephemeral keys
-		clientSelf.setEphemeralKeys(ephemeralKeys);
-		try {
-			CommsStorage.updateClient(db, clientSelf);
-		} catch (SQLException e) {
-			throw new WeaveException(String.format("Couldn't save client '%s' to local storage - %s", clientId, e.getMessage()));
-		}
-		
-		//Re-load client from local storage and add only published keys
-		Client client = null;
-		try {
-			client = CommsStorage.getClient(db, clientId);
-		} catch (SQLException e) {
-			throw new WeaveException(String.format("Couldn't load client '%s' from local storage - %s", clientId, e.getMessage()));
-		}
-
-		//Sync client and published ephemeral keys with server
-		client.setEphemeralKeys(publishedKeys);
-		commsApi.putClient(client);
-		
-		updateOtherClients();
 	}
 	
 	public void updateOtherClients() throws WeaveException {
@@ -336,40 +406,42 @@ public class Comms {
 		//Get other clients
 		Client[] clients = commsApi.getClients();
 		
-		for (Client client: clients) {							
+		synchronized (this) {
+			for (Client client: clients) {							
 			
-			if ( client.getClientId().equals(clientId) ) {
-				//Ignore our own client record
-				Log.getInstance().debug(String.format("Client '%s' (%s) is self. Skipping...", client.getClientName(), client.getClientId()));
-				continue;
-			}
+				if ( client.getClientId().equals(clientId) ) {
+					//Ignore our own client record
+					Log.getInstance().debug(String.format("Client '%s' (%s) is self. Skipping...", client.getClientName(), client.getClientId()));
+					continue;
+				}
 
-			//TODO - make checking for existing client cleaner
+				//TODO - make checking for existing client cleaner
 			
-			//Check if client already exists in storage
-			Client tmpClient = null;
-			try {
-				tmpClient = CommsStorage.getClient(db, client.getClientId());
-			} catch (StorageNotFoundException e) {
-				tmpClient = null;
-			} catch (SQLException e) {
-				throw new WeaveException(e);
-			}
+				//Check if client already exists in storage
+				Client tmpClient = null;
+				try {
+					tmpClient = CommsStorage.getClient(db, client.getClientId());
+				} catch (StorageNotFoundException e) {
+					tmpClient = null;
+				} catch (SQLException e) {
+					throw new WeaveException(e);
+				}
 			
-			try {
-				if ( tmpClient == null ) {
-					CommsStorage.createClient(db, client);
-				} else {
-					CommsStorage.updateClient(db, client);
+				try {
+					if ( tmpClient == null ) {
+						CommsStorage.createClient(db, client);
+					} else {
+						CommsStorage.updateClient(db, client);
+					}
+				} catch (SQLException e) {
+					throw new WeaveException(e);
 				}
-			} catch (SQLException e) {
-				throw new WeaveException(e);
-			}
 
-		}				
+			}
+		}
 	}
 
-	public Message[] getMessages() throws WeaveException {
+	public synchronized Message[] getMessages() throws WeaveException {
 		try {
 			return CommsStorage.getMessages(db);
 		} catch (SQLException e) {
@@ -377,7 +449,7 @@ public class Comms {
 		}
 	}
 
-	public Message[] getMessagesBySession(String sessionId) throws WeaveException, StorageNotFoundException {
+	public synchronized Message[] getMessagesBySession(String sessionId) throws WeaveException, StorageNotFoundException {
 		try {
 			return CommsStorage.getMessages(db, sessionId, null, null, true, false);
 		} catch (SQLException e) {
@@ -389,7 +461,7 @@ public class Comms {
 		return getUnreadMessages(null);
 	}
 	
-	public Message[] getUnreadMessages(String sessionId) throws WeaveException {
+	public synchronized Message[] getUnreadMessages(String sessionId) throws WeaveException {
 		try {
 			return CommsStorage.getMessages(db, sessionId, null, null, false, false);
 		} catch (SQLException e) {
@@ -404,7 +476,7 @@ public class Comms {
 		return getPendingMessages(null);
 	}
 	
-	public Message[] getPendingMessages(String messageType) throws WeaveException {
+	public synchronized Message[] getPendingMessages(String messageType) throws WeaveException {
 		try {
 			return CommsStorage.getMessages(db, null, messageType, "responsepending", true, false);
 		} catch (SQLException e) {
@@ -419,7 +491,7 @@ public class Comms {
 		return getNewMessage(getMessageSession(sessionId));	
 	}
 	
-	public Message getNewMessage(MessageSession session) throws WeaveException {
+	public synchronized Message getNewMessage(MessageSession session) throws WeaveException {
 		
 		String ephemeralPublicKey = null;		
 		try {
@@ -441,7 +513,7 @@ public class Comms {
 		return msg;
 	}
 
-	public void updateMessage(int messageId, boolean isRead, boolean isDeleted) throws WeaveException {
+	public synchronized void updateMessage(int messageId, boolean isRead, boolean isDeleted) throws WeaveException {
 		try {
 			CommsStorage.updateMessage(db, messageId, isRead, isDeleted);
 		} catch (SQLException e) {
@@ -449,7 +521,7 @@ public class Comms {
 		}
 	}
 
-	public void deleteMessage(int messageId) throws StorageNotFoundException, WeaveException {
+	public synchronized void deleteMessage(int messageId) throws StorageNotFoundException, WeaveException {
 		try {
 			CommsStorage.deleteMessage(db, messageId);
 		} catch (SQLException e) {
@@ -471,7 +543,7 @@ public class Comms {
 		return 	getMessageSession(sessionId);
 	}
 
-	public MessageSession getMessageSession(String sessionId) throws StorageNotFoundException, WeaveException {
+	public synchronized MessageSession getMessageSession(String sessionId) throws StorageNotFoundException, WeaveException {
 		try {
 			return CommsStorage.getMessageSession(db, sessionId);
 		} catch (SQLException e) {
@@ -479,7 +551,7 @@ public class Comms {
 		}
 	}
 
-	public MessageSession[] getMessageSessions(String clientId) throws WeaveException {
+	public synchronized MessageSession[] getMessageSessions(String clientId) throws WeaveException {
 		try {
 			return CommsStorage.getMessageSessions(db, clientId);
 		} catch (SQLException e) {
@@ -487,7 +559,7 @@ public class Comms {
 		}
 	}
 
-	public MessageSession createIncomingMessageSession(Message msg) throws WeaveException {
+	public synchronized MessageSession createIncomingMessageSession(Message msg) throws WeaveException {
 
 		Client otherClient = null;
 		try {
@@ -507,7 +579,7 @@ public class Comms {
 		return  createIncomingMessageSession(ephemeralKeyId, otherClientId, otherIdentityKey, otherEphemeralKeyId, otherEphemeralKey, "responsepending", 1L);
 	}
 	
-	public MessageSession createIncomingMessageSession(String ephemeralKeyId, String otherClientId, String otherIdentityKey, String otherEphemeralKeyId, String otherEphemeralKey, String state, Long sequence) throws WeaveException {
+	public synchronized MessageSession createIncomingMessageSession(String ephemeralKeyId, String otherClientId, String otherIdentityKey, String otherEphemeralKeyId, String otherEphemeralKey, String state, Long sequence) throws WeaveException {
 
 		EphemeralKey ekey = null;
 		try {
@@ -556,9 +628,15 @@ public class Comms {
 	
 	public MessageSession createOutgoingMessageSession(String otherClientId, String state) throws WeaveException, NoPublishedKeysException {
 
-		//Generate and store ephemeral ECDH keypair
-		ECDH ecdh = new ECDH();
-		KeyPair ephemeralKeyPair   = ecdh.generateECDHKeyPair();
+		//Take pre-generated ephemeral ECDH keypair, which may have to be generated, before locking storage
+		KeyPair ephemeralKeyPair = ephemeralKeyPool.take();
+
+		return createOutgoingMessageSession(otherClientId, state, ephemeralKeyPair);
+	}
+
+	private synchronized MessageSession createOutgoingMessageSession(String otherClientId, String state, KeyPair ephemeralKeyPair) throws WeaveException, NoPublishedKeysException {
+
+		//Store ephemeral ECDH keypair
 		String ephemeralKeyId      = wc.generateWeaveID();
 		String ephemeralPublicKey  = Base64.encodeBase64String(ephemeralKeyPair.getPublic().getEncoded());
         String ephemeralPrivateKey = Base64.encodeBase64String(ephemeralKeyPair.getPrivate().getEncoded());
@@ -617,7 +695,7 @@ public class Comms {
 		updateMessageSession(sessionId, state, null, null);
 	}
 
-	public void updateMessageSession(String sessionId, String state, Long sequence, Long otherSequence) throws StorageNotFoundException, WeaveException {
+	public synchronized void updateMessageSession(String sessionId, String state, Long sequence, Long otherSequence) throws StorageNotFoundException, WeaveException {
 		try {
 			CommsStorage.updateMessageSession(db, sessionId, state, sequence, otherSequence);
 		} catch (SQLException e) {
@@ -626,40 +704,58 @@ public class Comms {
 	}
 
 	public Double sendMessage(Message msg) throws WeaveException {
-		int msgId;
+		synchronized (sendLock) {
+			int msgId;
 
-		//TODO - make atomic
+			//Local writes before and after the message is put to the server are each atomic. If the put
+			//fails the message remains unread in local storage and the session state is unchanged
 
-		try {
-			//Set message sequence
-			MessageSession session = CommsStorage.getMessageSession(db, msg.getMessageSessionId());
-			msg.setSequence(session.getSequence() + 1);
+			synchronized (this) {
+				try {
+					CommsStorage.UnitOfWork uow = CommsStorage.beginUnitOfWork(db);
+					try {
+						//Set message sequence
+						MessageSession session = CommsStorage.getMessageSession(db, msg.getMessageSessionId());
+						msg.setSequence(session.getSequence() + 1);
+				
+						msgId = CommsStorage.createMessage(db, msg);
+						uow.commit();
+					} finally {
+						uow.close();
+					}
+				} catch (SQLException e) {
+					throw new WeaveException(e);
+				}
+			}
 			
-			msgId = CommsStorage.createMessage(db, msg);
+			Double modified = commsApi.putMessage(msg.getEncodedMessage());
 			
-		} catch (SQLException e) {
-			throw new WeaveException(e);
-		}
-		
-		Double modified = commsApi.putMessage(msg.getEncodedMessage());
+			synchronized (this) {
+				//Set message isread to true and update session state and sequence
+				try {
+					CommsStorage.UnitOfWork uow = CommsStorage.beginUnitOfWork(db);
+					try {
+						CommsStorage.updateMessage(db, msgId, true, false);
 				
-		//Set message isread to true and update session state and sequence
-		try {
-			CommsStorage.updateMessage(db, msgId, true, false);
-			
-			if ( msg.getSession().getState().equals("requestpending") ) {
-				CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "requestsent", msg.getSequence(), null);
-			} else if ( msg.getSession().getState().equals("responsepending") ) {
-				CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "responsesent", msg.getSequence(), null);			
-			} else {
-				Log.getInstance().warn(String.format("Unrecognised state '%s' for message session '%s'", msg.getSession().getState(), msg.getMessageSessionId()));
-				CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "messagesent", msg.getSequence(), null);
+						if ( msg.getSession().getState().equals("requestpending") ) {
+							CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "requestsent", msg.getSequence(), null);
+						} else if ( msg.getSession().getState().equals("responsepending") ) {
+							CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "responsesent", msg.getSequence(), null);			
+						} else {
+							Log.getInstance().warn(String.format("Unrecognised state '%s' for message session '%s'", msg.getSession().getState(), msg.getMessageSessionId()));
+							CommsStorage.updateMessageSession(db, msg.getMessageSessionId(), "messagesent", msg.getSequence(), null);
+						}
+						uow.commit();
+					} finally {
+						uow.close();
+					}
+				} catch (SQLException e) {
+					throw new WeaveException(e);
+				}
 			}
-		} catch (SQLException e) {
-			throw new WeaveException(e);
+			
+			return modified;
 		}
-		
-		return modified;
 	}
 
 	@SuppressWarnings("unused")
@@ -688,148 +784,315 @@ public class Comms {
 		return valid;
 	}
 	
-	public void checkMessages() throws WeaveException {
+	/**
+	 * getMessagesModified()
+	 * 
+	 * Modified time of message collection on server, or null if there are no messages
+	 */
+	public Double getMessagesModified() throws WeaveException {
+		return commsApi.getMessagesModified();
+	}
+	
+	/**
+	 * hasMessagesSince()
+	 * 
+	 * Whether the server has message records, for any client, modified after the given server timestamp
+	 */
+	public boolean hasMessagesSince(Double modified) throws WeaveException {
+		return commsApi.hasMessages(modified);
+	}
+
+	/**
+	 * checkMessages()
+	 * 
+	 * Fetch new messages from server and save them to local storage
+	 * 
+	 * @return messages saved to local storage, whether any message failed and modified time of message collection after delete
+	 */
+	public MessageCheckResult checkMessages() throws WeaveException {
 		Log.getInstance().debug("checkMessages()");
 		
+		synchronized (syncLock) {
+			return pollMessages();
+		}
+	}
+
+	/**
+	 * pollMessages()
+	 * 
+	 * See checkMessages(). Caller MUST hold syncLock, local storage is only locked while messages are saved.
+	 */
+	private MessageCheckResult pollMessages() throws WeaveException {
 		boolean syncError = false;
 		
 		//First update client records
 		updateOtherClients();
 		
-		//Get last poll value
-		Double lastPoll = null;
-		Double currPoll = ((double)System.currentTimeMillis())/1000;
+		//Get last poll value, i.e. server modified time of last processed message
+		Double lastPoll = getLastMessagePoll();
+		Double pollMark = lastPoll;
 		
-		//FIXME - Ensure modified time calculation and representation is correct
-		//try {
-		//	if ( CommsStorage.hasProperty(db, KEY_CLIENT_CONFIG_LASTMESSAGEPOLL) ) {
-		//		lastPoll = Double.parseDouble(CommsStorage.getProperty(db, KEY_CLIENT_CONFIG_LASTMESSAGEPOLL));
-		//	}
-		//} catch (SQLException e) {
-		//	throw new WeaveException(String.format("Error reading properties - %s", e.getMessage()));
-		//}
-		
-		//Get message ids
-		String[] msgIds = null;
+		//Get messages
+		Message[] msgs = null;
+
+		//Server modified times of records that couldn't be decoded, oldest first
+		List<Double> undecodable = new ArrayList<Double>();
 
 		Log.getInstance().debug(String.format("Polling server for new messages since '%.2f'", (lastPoll == null ? 0 : lastPoll)));
 
 		try {
-			msgIds = commsApi.getMessageIds(lastPoll);
+			msgs = commsApi.getMessages(lastPoll, undecodable);
 		} catch (NotFoundException e) {
 			throw new WeaveException("Couldn't check messages - " + e.getMessage());
 		}
 			
-		Log.getInstance().debug(String.format("Processing %d messages", msgIds.length));
+		if ( undecodable.size() > 0 ) {
+			Log.getInstance().warn(String.format("Skipped %d message records that couldn't be decoded", undecodable.size()));
+		}
+		int nextUndecodable = 0;
+
+		//Newest record fetched, messages modified after it were written during the check
+		Double fetchedModified = ( undecodable.size() > 0 ? undecodable.get(undecodable.size() - 1) : null );
+		for (Message msg: msgs) {
+			if ( msg.getServerModified() != null && (fetchedModified == null || msg.getServerModified() > fetchedModified) ) {
+				fetchedModified = msg.getServerModified();
+			}
+		}
+
+		List<String> processedIds = new ArrayList<String>();
+		Log.getInstance().debug(String.format("Processing %d messages", msgs.length));
 		
-		for (String msgId: msgIds) {
-			
-			Message msg = null;
+		List<Message> received = new ArrayList<Message>();
+		
+		Set<String> fetchedIds = new HashSet<String>();
+		for (Message msg: msgs) {
+			fetchedIds.add(msg.getRecordId());
+		}
+
+		synchronized (this) {
+			//Failure counts of messages that couldn't be processed by previous checks
+			Map<String, Long> failures = getMessageFailures();
+
+			//Sessions, messages, failure counts and high-water mark are saved in a single transaction
+			CommsStorage.UnitOfWork uow = null;
 			try {
-				msg = commsApi.getMessage(msgId);
-			} catch (NotFoundException e) {
-				Log.getInstance().warn(String.format("Error processsing message '%s' - Message not found", msgId));
-				syncError = true;
-				continue;
+				uow = CommsStorage.beginUnitOfWork(db);
+			} catch (SQLException e) {
+				throw new WeaveException(String.format("Couldn't start transaction - %s", e.getMessage()));
 			}
+		
+			try {
+				for (Message msg: msgs) {
 			
-			//Check message is ours
-			if ( !msg.getDestinationClientId().equals(clientId) ) {
-				Log.getInstance().info(String.format("Message '%s' for other client '%s'. Skipping...", msgId, msg.getDestinationClientId()));
-				continue;
-			}
+					String msgId = msg.getRecordId();
+					Double modified = msg.getServerModified();
 			
-			//Get corresponding Ephemeral Key
-			EphemeralKey ekey = null;
-			try {
-				ekey = CommsStorage.getEphemeralKey(db, clientId, msg.getDestinationKeyId());
-			} catch (SQLException e) {
-				Log.getInstance().error(String.format("Couldn't get ephemeral key for keyid '%s' - %s", msg.getDestinationKeyId(), e.getMessage()));
-				syncError = true;
-				continue;
-			}
+					//The message collection is shared by all clients, hence records that couldn't be decoded are
+					//left on the server. As with messages for other clients the high-water mark moves past them
+					while ( modified != null && nextUndecodable < undecodable.size() && undecodable.get(nextUndecodable) <= modified ) {
+						if ( !syncError ) {
+							pollMark = undecodable.get(nextUndecodable);
+						}
+						nextUndecodable++;
+					}
 			
-			if ( ekey == null ) {
-				Log.getInstance().error(String.format("Couldn't get ephemeral key for keyid '%s' - not found", msg.getDestinationKeyId()));
-				syncError = true;
-				continue;
-			}
-
-			//Save message to local storage
-			try {
-
-				//Get message session
-				MessageSession session = getMessageSession(msg);
-				
-				if ( session == null && msg.getSequence() == 1 ) {
-					//This is a new session
-					
-					Client otherClient = CommsStorage.getClient(db, msg.getSourceClientId());
-					if ( otherClient == null ) {
-						Log.getInstance().error(String.format("Couldn't load client '%s'", msg.getSourceClientId()));
-						syncError = true;
+					//Messages are sorted by modified time. Once all messages with the previous modified time have been
+					//processed without error persist it as the new high-water mark
+					if ( !syncError && modified != null && pollMark != null && modified > pollMark && !pollMark.equals(lastPoll) ) {
+						setLastMessagePoll(pollMark);
+						lastPoll = pollMark;
+					}
+			
+					//Check message is ours
+					if ( !msg.getDestinationClientId().equals(clientId) ) {
+						Log.getInstance().info(String.format("Message '%s' for other client '%s'. Skipping...", msgId, msg.getDestinationClientId()));
+						if ( !syncError && modified != null ) {
+							pollMark = modified;
+						}
 						continue;
 					}
-										
+			
 					try {
-						createIncomingMessageSession(msg.getDestinationKeyId(), msg.getSourceClientId(), otherClient.getPublicKey(), msg.getSourceKeyId(), msg.getSourceKey());
+						received.add(prepareMessage(msg));
+						failures.remove(msgId);
 					} catch (WeaveException e) {
-						Log.getInstance().error(String.format("Couldn't create message session for message '%s' - %s", msgId, e.getMessage()));
-						syncError = true;
-						continue;
+						Log.getInstance().error(String.format("Error processing message '%s' - %s", msgId, e.getMessage()));
+
+						//Retry failed messages up to MESSAGE_RETRY_LIMIT checks, then give up on them so that
+						//they no longer hold back the high-water mark
+						Long count = failures.get(msgId);
+						count = ( count == null ? 1 : count + 1 );
+						if ( count < MESSAGE_RETRY_LIMIT ) {
+							failures.put(msgId, count);
+							syncError = true;
+							continue;
+						}
+						Log.getInstance().error(String.format("Message '%s' failed %d times, deleting it", msgId, count));
+						failures.remove(msgId);
+					}
+
+					processedIds.add(msgId);
+					if ( !syncError && modified != null ) {
+						pollMark = modified;
 					}
-					
-					session = getMessageSession(msg);
 				}
-				
-				//Check session validity
-				if ( !validateMessageSession(msg, session) ) {
-					Log.getInstance().error(String.format("Message session invalid for message '%s'", msgId));
-					syncError = true;
-					continue;
+		
+				if ( !syncError && nextUndecodable < undecodable.size() ) {
+					pollMark = undecodable.get(undecodable.size() - 1);
+				}
+		
+				//Save messages
+				try {
+					CommsStorage.createMessages(db, received);
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't save %d messages to local storage - %s", received.size(), e.getMessage()));
 				}
-				
-				//Finally add session to message and save
-				msg.setSession(session);
-				CommsStorage.createMessage(db, msg);
-				
-			} catch (SQLException e) {
-				Log.getInstance().error(String.format("Error processing message '%s' - Couldn't save message to local storage - %s", msgId, e.getMessage()));
-				syncError = true;
-				continue;
-			} catch (WeaveException e) {
-				Log.getInstance().warn(String.format("Error processing message '%s' - %s", msgId, e.getMessage()));
-				syncError = true;
-				continue;			
-			}
 
-			//delete message from server
+				//Failed messages are fetched again until they succeed or are given up on, hence counts for
+				//messages no longer on the server are dropped
+				failures.keySet().retainAll(fetchedIds);
+				setMessageFailures(failures);
+			
+				//Messages are saved to local storage hence advance high-water mark even if delete fails
+				if ( !syncError && pollMark != null && !pollMark.equals(lastPoll) ) {
+					setLastMessagePoll(pollMark);
+				}
+			
+				try {
+					uow.commit();
+				} catch (SQLException e) {
+					throw new WeaveException(String.format("Couldn't save messages to local storage - %s", e.getMessage()));
+				}
+			} finally {
+				uow.close();
+			}
+		}
+		
+		//delete messages from server
+		Double deleteModified = null;
+		if ( processedIds.size() > 0 ) {
 			try {
-				commsApi.deleteMessage(msgId);
+				deleteModified = commsApi.deleteMessages(processedIds.toArray(new String[0]));
 			} catch (NotFoundException e) {
-				Log.getInstance().warn(String.format("Couldn't delete message '%s' - Message not found", msgId));
+				Log.getInstance().warn(String.format("Couldn't delete %d messages - Messages not found", processedIds.size()));
 				syncError = true;
-				continue;
 			} catch (WeaveException e) {
-				Log.getInstance().warn(String.format("Couldn't delete message '%s' - %s", msgId, e.getMessage()));
+				Log.getInstance().warn(String.format("Couldn't delete %d messages - %s", processedIds.size(), e.getMessage()));
 				syncError = true;
-				continue;					
 			}
-
 		}
 		
-		//Update last poll value
 		if ( syncError ) {
-			Log.getInstance().warn("Errors occurred while syncing messages, last poll timestamp not updated");
-		} else {
-			try {
-				CommsStorage.setProperty(db, KEY_CLIENT_CONFIG_LASTMESSAGEPOLL, String.format("%.2f", currPoll.doubleValue()));
-			} catch (SQLException e) {
-				throw new WeaveException(String.format("Error writing properties - %s", e.getMessage()));
-			}
+			Log.getInstance().warn("Errors occurred while syncing messages, last poll timestamp not updated past first failed message");
 		}
 				
 		updateClient();
+		
+		return new MessageCheckResult(received.toArray(new Message[0]), syncError, deleteModified, fetchedModified);
+	}
+	
+	/**
+	 * prepareMessage()
+	 * 
+	 * Create session for first message of an incoming session and add session to message
+	 */
+	private synchronized Message prepareMessage(Message msg) throws WeaveException {
+
+		//Get corresponding Ephemeral Key
+		EphemeralKey ekey = null;
+		try {
+			ekey = CommsStorage.getEphemeralKey(db, clientId, msg.getDestinationKeyId());
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't get ephemeral key for keyid '%s' - %s", msg.getDestinationKeyId(), e.getMessage()));
+		}
+	
+		if ( ekey == null ) {
+			throw new WeaveException(String.format("Couldn't get ephemeral key for keyid '%s' - not found", msg.getDestinationKeyId()));
+		}
+
+		try {
+			//Get message session
+			MessageSession session = getMessageSession(msg);
+		
+			if ( session == null && msg.getSequence() == 1 ) {
+				//This is a new session
+			
+				Client otherClient = CommsStorage.getClient(db, msg.getSourceClientId());
+				if ( otherClient == null ) {
+					throw new WeaveException(String.format("Couldn't load client '%s'", msg.getSourceClientId()));
+				}
+								
+				try {
+					createIncomingMessageSession(msg.getDestinationKeyId(), msg.getSourceClientId(), otherClient.getPublicKey(), msg.getSourceKeyId(), msg.getSourceKey());
+				} catch (WeaveException e) {
+					throw new WeaveException(String.format("Couldn't create message session - %s", e.getMessage()));
+				}
+			
+				session = getMessageSession(msg);
+			}
+		
+			//Check session validity
+			if ( !validateMessageSession(msg, session) ) {
+				throw new WeaveException("Message session invalid");
+			}
+		
+			//Finally add session to message, saved in batch by caller
+			msg.setSession(session);
+			return msg;
+		
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't save message to local storage - %s", e.getMessage()));
+		}
+	}
+
+	private synchronized Map<String, Long> getMessageFailures() throws WeaveException {
+		Map<String, Long> failures = new HashMap<String, Long>();
+		try {
+			String value = CommsStorage.getProperty(db, KEY_CLIENT_CONFIG_MESSAGEFAILURES, null);
+			if ( value != null ) {
+				JSONObject jsonObject = (JSONObject)new JSONParser().parse(value);
+				for (Object msgId: jsonObject.keySet()) {
+					failures.put((String)msgId, (Long)jsonObject.get(msgId));
+				}
+			}
+		} catch (ParseException | ClassCastException e) {
+			Log.getInstance().warn(String.format("Invalid message failure counts - %s", e.getMessage()));
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Error reading properties - %s", e.getMessage()));
+		}
+		return failures;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void setMessageFailures(Map<String, Long> failures) throws WeaveException {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.putAll(failures);
+		try {
+			CommsStorage.setProperty(db, KEY_CLIENT_CONFIG_MESSAGEFAILURES, jsonObject.toJSONString());
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Error writing properties - %s", e.getMessage()));
+		}
+	}
+
+	private synchronized Double getLastMessagePoll() throws WeaveException {
+		try {
+			String lastPoll = CommsStorage.getProperty(db, KEY_CLIENT_CONFIG_LASTMESSAGEPOLL, null);
+			return ( lastPoll == null ? null : Double.valueOf(lastPoll) );
+		} catch (NumberFormatException e) {
+			Log.getInstance().warn(String.format("Invalid last poll timestamp - %s", e.getMessage()));
+			return null;
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Error reading properties - %s", e.getMessage()));
+		}
+	}
+	
+	private synchronized void setLastMessagePoll(Double modified) throws WeaveException {
+		try {
+			//Persist full precision as rounding up would skip messages
+			CommsStorage.setProperty(db, KEY_CLIENT_CONFIG_LASTMESSAGEPOLL, modified.toString());
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Error writing properties - %s", e.getMessage()));
+		}
 	}
 	
 }
@@ -1,6 +1,7 @@
 package org.exfio.weave.account.exfiopeer.comm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,10 +16,12 @@ import org.exfio.weave.account.exfiopeer.crypto.ECDH;
 import org.exfio.weave.account.exfiopeer.crypto.ECKeyPair;
 import org.exfio.weave.client.WeaveClient;
 import org.exfio.weave.client.WeaveClientFactory;
+import org.exfio.weave.crypto.EncryptedPayload;
 import org.exfio.weave.crypto.PayloadCipher;
 import org.exfio.weave.crypto.WeaveKeyPair;
 import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveCollectionCursor;
 import org.exfio.weave.util.Log;
 
 public class CommsApiV1 {
@@ -60,8 +63,15 @@ public class CommsApiV1 {
 	public static final String KEY_MESSAGE_SEQUENCE             = "sequence";
 	public static final String KEY_MESSAGE_TYPE                 = "type";
 	public static final String KEY_MESSAGE_CONTENT              = "content";
+	
+	public static final int MESSAGE_PAGE_SIZE         = 100;
+	
+	//Servers limit the number of ids per request, i.e. 100 for Sync 1.1
+	public static final int MESSAGE_DELETE_BATCH_SIZE = 100;
 
 	private WeaveClient wc;
+	private ECDH ecdh = new ECDH();
+	private PayloadCipher cipher = new PayloadCipher();
 			
 	
 	public CommsApiV1(WeaveClient wc) {
@@ -277,7 +287,6 @@ public class CommsApiV1 {
 		
 		//Get 3DHE key pair for session
 		//EphemeralKey sessionKey = ClientAuthStorage.getEphemeralKey(db, msg.getSession().getEphemeralKeyId());
-		ECDH ecdh = new ECDH();
 		WeaveKeyPair keyPair = ecdh.get3DHEKeyPair(clientKeyPair.getPrivateKey(), ephemeralKeyPair.getPrivateKey() , msg.getSession().getOtherIdentityKey(), msg.getSession().getOtherEphemeralKey());
 
 		//Decrypt message content
@@ -287,8 +296,11 @@ public class CommsApiV1 {
 	}
 	
 	private String decryptMessageContent(String content, WeaveKeyPair keyPair) throws WeaveException {
-		PayloadCipher cipher = new PayloadCipher();
-        return cipher.decrypt(content, keyPair);        
+		EncryptedPayload payload = EncryptedPayload.parse(content);
+		if ( payload.getCiphertext().length() > PayloadCipher.STREAM_THRESHOLD ) {
+			return cipher.decryptStreamed(payload, keyPair);
+		}
+		return cipher.decrypt(payload, keyPair);
 	}
 
 	@SuppressWarnings("unused")
@@ -303,7 +315,6 @@ public class CommsApiV1 {
 		
 		//Get 3DHE key pair for session
 		//EphemeralKey sessionKey = ClientAuthStorage.getEphemeralKey(db, msg.getSession().getEphemeralKeyId());
-		ECDH ecdh = new ECDH();
 		WeaveKeyPair keyPair = ecdh.get3DHEKeyPair(clientKeyPair.getPrivateKey(), ephemeralKeyPair.getPrivateKey() , msg.getSession().getOtherIdentityKey(), msg.getSession().getOtherEphemeralKey());
 
 		//Encrypt message content
@@ -321,7 +332,9 @@ public class CommsApiV1 {
 		Log.getInstance().debug( "encryptMessageContent()");
 		Log.getInstance().debug( "plaintext:\n" + plaintext);
 	        		
-		PayloadCipher cipher = new PayloadCipher();
+		if ( plaintext.length() > PayloadCipher.STREAM_THRESHOLD ) {
+			return cipher.encryptStreamed(plaintext, keyPair);
+		}
 		return cipher.encrypt(plaintext, keyPair);
 	}
 	
@@ -417,6 +430,8 @@ public class CommsApiV1 {
 		try {
 			WeaveBasicObject wbo = wc.get(KEY_MESSAGE_COLLECTION, keyId, false);
 			EncodedMessage msg = decodeMessageWeavePayload(wbo.getPayloadAsJSONObject());
+			msg.setRecordId(wbo.getId());
+			msg.setServerModified(wbo.getModified());
 			return msg;
 		} catch (ParseException e) {
 			throw new WeaveException(e);
@@ -427,6 +442,69 @@ public class CommsApiV1 {
 		return wc.getCollectionIds(KEY_MESSAGE_COLLECTION, null, null, modifedSince, null, null, null, null, null);
 	}
 
+	/**
+	 * hasMessages()
+	 * 
+	 * Whether any message record, for any client, has been modified since modifiedSince. At most one id
+	 * is requested.
+	 */
+	public boolean hasMessages(Double modifiedSince) throws WeaveException {
+		try {
+			return wc.getCollectionIds(KEY_MESSAGE_COLLECTION, null, null, modifiedSince, null, null, 1, null, null).length > 0;
+		} catch (NotFoundException e) {
+			return false;
+		}
+	}
+
+	public Double getMessagesModified() throws WeaveException {
+		return wc.getApiClient().getCollectionModified(KEY_MESSAGE_COLLECTION);
+	}
+
+	/**
+	 * getMessages()
+	 * 
+	 * Fetch full message records in pages of MESSAGE_PAGE_SIZE rather than one request per message id.
+	 * Records that can't be decoded, e.g. from peers on a newer protocol version, are logged and skipped.
+	 * Their server modified times are added to skippedModified if provided.
+	 */
+	public EncodedMessage[] getMessages(Double modifiedSince) throws WeaveException, NotFoundException {
+		return getMessages(modifiedSince, null);
+	}
+
+	public EncodedMessage[] getMessages(Double modifiedSince, List<Double> skippedModified) throws WeaveException, NotFoundException {
+		List<EncodedMessage> msgs = new ArrayList<EncodedMessage>();
+		
+		WeaveCollectionCursor cursor = wc.getCollectionCursor(KEY_MESSAGE_COLLECTION, null, null, modifiedSince, null, null, "oldest", MESSAGE_PAGE_SIZE, false, false);
+		try {
+			while ( cursor.hasNext() ) {
+				WeaveBasicObject wbo = cursor.next();
+				EncodedMessage msg = null;
+				try {
+					msg = decodeMessageWeavePayload(wbo.getPayloadAsJSONObject());
+				} catch (ParseException e) {
+					Log.getInstance().error(String.format("Couldn't parse message record '%s' - %s", wbo.getId(), e.getMessage()));
+				} catch (WeaveException e) {
+					Log.getInstance().error(String.format("Couldn't decode message record '%s' - %s", wbo.getId(), e.getMessage()));
+				}
+
+				if ( msg == null ) {
+					if ( skippedModified != null ) {
+						skippedModified.add(wbo.getModified());
+					}
+					continue;
+				}
+
+				msg.setRecordId(wbo.getId());
+				msg.setServerModified(wbo.getModified());
+				msgs.add(msg);
+			}
+		} finally {
+			cursor.close();
+		}
+		
+		return msgs.toArray(new EncodedMessage[0]);
+	}
+
 	public Double putMessage(EncodedMessage msg) throws WeaveException {
 		JSONObject payloadClient = encodeMessageWeavePayload(msg);
 		WeaveBasicObject wbo = new WeaveBasicObject(msg.getDestinationKeyId(), null, null, null, payloadClient.toJSONString());		
@@ -436,4 +514,18 @@ public class CommsApiV1 {
 	public Double deleteMessage(String keyId) throws WeaveException, NotFoundException {
 		return wc.delete(KEY_MESSAGE_COLLECTION, keyId);
 	}
+
+	/**
+	 * deleteMessages()
+	 * 
+	 * Delete messages with one collection request per MESSAGE_DELETE_BATCH_SIZE ids
+	 */
+	public Double deleteMessages(String[] keyIds) throws WeaveException, NotFoundException {
+		Double modified = null;
+		for (int i = 0; i < keyIds.length; i += MESSAGE_DELETE_BATCH_SIZE) {
+			String[] batch = Arrays.copyOfRange(keyIds, i, Math.min(i + MESSAGE_DELETE_BATCH_SIZE, keyIds.length));
+			modified = wc.deleteCollection(KEY_MESSAGE_COLLECTION, batch, null, null, null, null, null);
+		}
+		return modified;
+	}
 }
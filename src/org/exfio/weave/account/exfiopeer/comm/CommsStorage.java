@@ -3,10 +3,13 @@ package org.exfio.weave.account.exfiopeer.comm;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -22,14 +25,180 @@ public class CommsStorage {
 
 	public static final int QUERY_TIMEOUT = 10;
 	
+	//Schema version recorded in SQLite user_version, see upgradeDB()
+	public static final int SCHEMA_VERSION = 2;
+	
+	public static final int STATEMENT_CACHE_SIZE = 64;
+	
+	//With write-ahead logging NORMAL only syncs at checkpoints, a power failure may lose the most
+	//recent transactions but cannot corrupt the database
+	public static final String JOURNAL_MODE = "WAL";
+	public static final String SYNCHRONOUS  = "NORMAL";
+	
+	public static Connection openConnection(String database) throws SQLException {
+		Connection db = DriverManager.getConnection("jdbc:sqlite:" + database);
+		configureConnection(db);
+		return db;
+	}
+	
+	/**
+	 * closeConnection()
+	 * 
+	 * Close cached statements and connection
+	 */
+	public static void closeConnection(Connection db) throws SQLException {
+		StatementCache cache = null;
+		synchronized (statementCaches) {
+			cache = statementCaches.remove(db);
+		}
+		if ( cache != null ) {
+			cache.close();
+		}
+		db.close();
+	}
+	
+	public static void configureConnection(Connection db) throws SQLException {
+		Statement st = db.createStatement();
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		st.execute("PRAGMA journal_mode=" + JOURNAL_MODE);
+		st.execute("PRAGMA synchronous=" + SYNCHRONOUS);
+		st.close();
+	}
+	
+	/**
+	 * beginUnitOfWork()
+	 * 
+	 * Group data mapper calls into a single transaction, i.e.
+	 * 
+	 *   UnitOfWork uow = CommsStorage.beginUnitOfWork(db);
+	 *   try {
+	 *     ...
+	 *     uow.commit();
+	 *   } finally {
+	 *     uow.close();
+	 *   }
+	 *   
+	 * If a transaction is already in progress on the connection the unit of work joins it and the
+	 * outermost unit of work commits or rolls back.
+	 */
+	public static UnitOfWork beginUnitOfWork(Connection db) throws SQLException {
+		return new UnitOfWork(db);
+	}
+	
+	public static class UnitOfWork {
+		private final Connection db;
+		private final boolean    outermost;
+		private boolean          complete = false;
+		
+		private UnitOfWork(Connection db) throws SQLException {
+			this.db        = db;
+			this.outermost = db.getAutoCommit();
+			if ( outermost ) {
+				db.setAutoCommit(false);
+			}
+		}
+		
+		public void commit() throws SQLException {
+			if ( outermost ) {
+				db.commit();
+			}
+			complete = true;
+		}
+		
+		/**
+		 * close()
+		 * 
+		 * Roll back if not committed and restore auto commit
+		 */
+		public void close() {
+			if ( !outermost ) {
+				return;
+			}
+			try {
+				if ( !complete ) {
+					db.rollback();
+				}
+			} catch (SQLException e) {
+				Log.getInstance().error("Couldn't roll back transaction - " + e.getMessage());
+			} finally {
+				try {
+					db.setAutoCommit(true);
+				} catch (SQLException e) {
+					Log.getInstance().error("Couldn't restore auto commit - " + e.getMessage());
+				}
+			}
+		}
+	}
+	
 	public static void initDB(Connection db) throws SQLException {
 		initDB(db, false);
 	}
 	
 	public static void initDB(Connection db, boolean force) throws SQLException{
-		PropertyDataMapper.initDB(db, force);
-		ClientDataMapper.initDB(db, force);
-		DefaultMessageDataMapper.initDB(db, force);		
+		UnitOfWork uow = beginUnitOfWork(db);
+		try {
+			PropertyDataMapper.initDB(db, force);
+			ClientDataMapper.initDB(db, force);
+			DefaultMessageDataMapper.initDB(db, force);
+			upgradeDB(db, force);
+			uow.commit();
+		} finally {
+			uow.close();
+		}
+	}
+	
+	/**
+	 * upgradeDB()
+	 * 
+	 * Apply schema changes made since the version recorded in the database. Tables are created by
+	 * initDB() hence existing databases are at version 0. Called when an existing database is opened
+	 * by Comms, as well as by initDB().
+	 */
+	public static void upgradeDB(Connection db) throws SQLException {
+		UnitOfWork uow = beginUnitOfWork(db);
+		try {
+			upgradeDB(db, false);
+			uow.commit();
+		} finally {
+			uow.close();
+		}
+	}
+	
+	protected static void upgradeDB(Connection db, boolean force) throws SQLException {
+		Statement st = db.createStatement();
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		
+		int version = 0;
+		if ( !force ) {
+			ResultSet rs = st.executeQuery("PRAGMA user_version");
+			if ( rs.next() ) {
+				version = rs.getInt(1);
+			}
+			rs.close();
+		}
+		
+		if ( version >= SCHEMA_VERSION ) {
+			st.close();
+			return;
+		}
+		
+		Log.getInstance().info(String.format("Upgrading comms database schema from version %d to %d", version, SCHEMA_VERSION));
+		
+		if ( version < 1 ) {
+			//Secondary indexes for ephemeral key, session and message lookups
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS EphemeralKey_ClientID_Status ON EphemeralKey (ClientID, Status)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS MessageSession_OtherClientID ON MessageSession (OtherClientID)");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS Message_MessageSessionID ON Message (MessageSessionID)");
+		}
+		
+		if ( version < 2 ) {
+			//Message queries always filter on IsDeleted and optionally on IsRead
+			st.executeUpdate("DROP INDEX IF EXISTS Message_IsRead_IsDeleted");
+			st.executeUpdate("CREATE INDEX IF NOT EXISTS Message_IsDeleted_IsRead ON Message (IsDeleted, IsRead)");
+		}
+		
+		st.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+		st.close();
 	}
 
 	public static String getProperty(Connection db, String key, String defaultValue) throws SQLException {
@@ -92,6 +261,10 @@ public class CommsStorage {
 		ClientDataMapper.createEphemeralKey(db, clientId, key);
 	}
 
+	public static void createEphemeralKeys(Connection db, String clientId, List<EphemeralKey> keys) throws SQLException {
+		ClientDataMapper.createEphemeralKeys(db, clientId, keys);
+	}
+
 	public static void updateEphemeralKey(Connection db, EphemeralKey key) throws SQLException {
 		ClientDataMapper.updateEphemeralKey(db, key);
 	}
@@ -128,6 +301,22 @@ public class CommsStorage {
 		return DefaultMessageDataMapper.createMessage(db, msg.getEncodedMessage());
 	}
 
+	/**
+	 * createMessages()
+	 * 
+	 * Create messages and set their local message ids
+	 */
+	public static void createMessages(Connection db, List<Message> msgs) throws SQLException {
+		List<EncodedMessage> encoded = new ArrayList<EncodedMessage>(msgs.size());
+		for (Message msg: msgs) {
+			encoded.add(msg.getEncodedMessage());
+		}
+		int[] ids = DefaultMessageDataMapper.createMessages(db, encoded);
+		for (int i = 0; i < ids.length; i++) {
+			msgs.get(i).setMessageId(ids[i]);
+		}
+	}
+
 	public static void updateMessage(Connection db, int messageId, boolean isRead, boolean isDeleted) throws SQLException {
 		DefaultMessageDataMapper.updateMessage(db, messageId, isRead, isDeleted);
 	}
@@ -152,8 +341,91 @@ public class CommsStorage {
 		DefaultMessageDataMapper.updateMessageSession(db, sessionId, state, sequence, otherSequence);
 	}
 
+	//-------------------------------------------
+	// Prepared statement cache
+	//-------------------------------------------
+
+	//Statements reference their connection, hence caches are released by closeConnection() or once the
+	//connection is found to be closed
+	private static final Map<Connection, StatementCache> statementCaches = new HashMap<Connection, StatementCache>();
+	
+	/**
+	 * prepare()
+	 * 
+	 * Prepared statement for SQL from per connection cache. Cached statements are reused by subsequent
+	 * calls, hence as with transactions a connection must only be used by one thread at a time.
+	 */
+	protected static PreparedStatement prepare(Connection db, String SQL) throws SQLException {
+		StatementCache cache = null;
+		synchronized (statementCaches) {
+			cache = statementCaches.get(db);
+			if ( cache == null ) {
+				
+				//Purge caches for connections closed without closeConnection()
+				Iterator<Map.Entry<Connection, StatementCache>> iter = statementCaches.entrySet().iterator();
+				while ( iter.hasNext() ) {
+					Map.Entry<Connection, StatementCache> entry = iter.next();
+					if ( entry.getKey().isClosed() ) {
+						entry.getValue().close();
+						iter.remove();
+					}
+				}
+				
+				cache = new StatementCache();
+				statementCaches.put(db, cache);
+			}
+		}
+		return cache.prepare(db, SQL);
+	}
+	
+	@SuppressWarnings("serial")
+	private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+		public StatementCache() {
+			//Access order for LRU eviction
+			super(16, 0.75f, true);
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if ( size() > STATEMENT_CACHE_SIZE ) {
+				closeStatement(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+		
+		public synchronized PreparedStatement prepare(Connection db, String SQL) throws SQLException {
+			PreparedStatement st = get(SQL);
+			if ( st == null || st.isClosed() ) {
+				st = db.prepareStatement(SQL);
+				st.setQueryTimeout(QUERY_TIMEOUT);
+				put(SQL, st);
+			} else {
+				st.clearParameters();
+			}
+			return st;
+		}
+		
+		public synchronized void close() {
+			for (PreparedStatement st: values()) {
+				closeStatement(st);
+			}
+			clear();
+		}
+		
+		private static void closeStatement(PreparedStatement st) {
+			try {
+				st.close();
+			} catch (SQLException e) {
+				//fail quietly
+				Log.getInstance().warn("Couldn't close statement - " + e.getMessage());
+			}
+		}
+	}
+
     private static ResultSet getGeneratedKeys(Connection db) throws SQLException {
-    	return db.createStatement().executeQuery("select last_insert_rowid();");
+    	return prepare(db, "SELECT last_insert_rowid()").executeQuery();
     }
     
 	//-------------------------------------------
@@ -192,18 +464,21 @@ public class CommsStorage {
 			String SQL = null;
 			SQL = "SELECT Value FROM Property WHERE Key = ?";
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key);
 			
 			ResultSet rs = st.executeQuery();
-			if ( !rs.next() ) {
-				throw new StorageNotFoundException(String.format("Value not found for key '%s'", key));
+			try {
+				if ( !rs.next() ) {
+					throw new StorageNotFoundException(String.format("Value not found for key '%s'", key));
+				}
+				
+				return rs.getString("Value");
+			} finally {
+				rs.close();
 			}
-			
-			return rs.getString("Value");
 		}
 
 		public static boolean hasProperty(Connection db, String key) throws SQLException {
@@ -211,15 +486,17 @@ public class CommsStorage {
 			String SQL = null;
 			SQL = "SELECT Value FROM Property WHERE Key = ?";
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key);
 			
 			ResultSet rs = st.executeQuery();
-
-			return ( (rs != null) && rs.next() );
+			try {
+				return rs.next();
+			} finally {
+				rs.close();
+			}
 		}
 
 		public static void setProperty(Connection db, String key, String value) throws SQLException {
@@ -236,8 +513,7 @@ public class CommsStorage {
 				+ "\n"
 				+ "VALUES(?, ?, CURRENT_TIMESTAMP)";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);	
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key);
@@ -251,8 +527,7 @@ public class CommsStorage {
 			
 			SQL = "DELETE FROM Property WHERE Key = ?";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);	
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key);
@@ -325,10 +600,10 @@ public class CommsStorage {
 
 		}
 		
-		protected static String buildQueryGetClientById(String clientId, boolean includeDeleted) {
+		protected static String buildQueryGetClientById(boolean includeDeleted) {
 			String SQL = buildQueryGetClient(includeDeleted);
 			
-			SQL += " AND ClientID = " + SQLUtils.quote(clientId);
+			SQL += " AND ClientID = ?";
 			
 			return SQL;
 		}
@@ -356,7 +631,7 @@ public class CommsStorage {
 			if ( includeDeleted ) {
 				SQL += " 1=1";
 			} else {
-				SQL += " NOT IsDeleted"; 
+				SQL += " IsDeleted = 0"; 
 			}
 			
 			return SQL;
@@ -383,19 +658,23 @@ public class CommsStorage {
 		
 		public static Client getClient(Connection db, String clientId) throws SQLException, StorageNotFoundException {
 			
-			String SQL = buildQueryGetClientById(clientId, false);
+			String SQL = buildQueryGetClientById(false);
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
+			
+			int col = 1;
+			st.setString(col++, clientId);
 			
 			ResultSet rs = st.executeQuery();
-			if ( !rs.next() ) {
-				throw new StorageNotFoundException(String.format("Client not found with ClientID '%s'", clientId));
+			try {
+				if ( !rs.next() ) {
+					throw new StorageNotFoundException(String.format("Client not found with ClientID '%s'", clientId));
+				}
+				
+				return buildClientFromDB(db, rs);
+			} finally {
+				rs.close();
 			}
-			
-			Client client = buildClientFromDB(db, rs);
-
-			return client;
 		}
 
 		public static Client getClientByName(Connection db, String clientName) throws SQLException, StorageNotFoundException {
@@ -404,20 +683,21 @@ public class CommsStorage {
 			
 			SQL += " AND ClientName = ?";
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, clientName);
 			
 			ResultSet rs = st.executeQuery();
-			if ( !rs.next() ) {
-				throw new StorageNotFoundException(String.format("Client not found with ClientName '%s'", clientName));
+			try {
+				if ( !rs.next() ) {
+					throw new StorageNotFoundException(String.format("Client not found with ClientName '%s'", clientName));
+				}
+				
+				return buildClientFromDB(db, rs);
+			} finally {
+				rs.close();
 			}
-			
-			Client client = buildClientFromDB(db, rs);
-
-			return client;
 		}
 
 		public static Client getClientSelf(Connection db) throws SQLException, StorageNotFoundException {
@@ -426,17 +706,18 @@ public class CommsStorage {
 			
 			SQL += " AND IsSelf = 1";
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			ResultSet rs = st.executeQuery();
-			if ( !rs.next() ) {
-				throw new StorageNotFoundException(String.format("Client not found with IsSelf '1'"));
+			try {
+				if ( !rs.next() ) {
+					throw new StorageNotFoundException(String.format("Client not found with IsSelf '1'"));
+				}
+				
+				return buildClientFromDB(db, rs);
+			} finally {
+				rs.close();
 			}
-			
-			Client client = buildClientFromDB(db, rs);
-
-			return client;
 		}
 
 		public static Client[] getClients(Connection db) throws SQLException {
@@ -445,13 +726,16 @@ public class CommsStorage {
 			
 			String SQL = buildQueryGetClient(false);
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			ResultSet rs = st.executeQuery();
-			while ( rs.next() ) {
-				Client client = buildClientFromDB(db, rs);
-				clients.add(client);
+			try {
+				while ( rs.next() ) {
+					Client client = buildClientFromDB(db, rs);
+					clients.add(client);
+				}
+			} finally {
+				rs.close();
 			}
 			
 			return clients.toArray(new Client[0]);
@@ -478,8 +762,7 @@ public class CommsStorage {
 				+ "\n"
 				+ "VALUES(?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 
 			int col = 1;
 			st.setString(col++, client.getClientId());
@@ -516,8 +799,7 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " ClientID = ?";
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 
 			int col = 1;
 			st.setInt   (col++, client.isSelf() ? 1 : 0);
@@ -546,30 +828,29 @@ public class CommsStorage {
 					   + "WHERE"
 					   + " ClientID = ?";
 
-			PreparedStatement pst = db.prepareStatement(SQL);
-			pst.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement pst = prepare(db, SQL);
 			int col = 1;
 			pst.setString(col++, clientId);
 			
 			pst.executeUpdate();
 		}
 
-		public static String buildQueryGetEphemeralKeyById(String clientId, String keyId, boolean includeDeleted) {
+		public static String buildQueryGetEphemeralKeyById(boolean includeDeleted) {
 			String SQL = buildQueryGetEphemeralKey(includeDeleted);
 			
-			SQL += " AND ClientID = " + SQLUtils.quote(clientId);
-			SQL += " AND EphemeralKeyID = " + SQLUtils.quote(keyId);
+			SQL += " AND ClientID = ?";
+			SQL += " AND EphemeralKeyID = ?";
 			
 			return SQL;
 		}
 
-		public static String buildQueryGetEphemeralKeyByClient(String clientId, boolean isPublished, boolean includeDeleted) {
+		public static String buildQueryGetEphemeralKeyByClient(boolean isPublished, boolean includeDeleted) {
 			String SQL = buildQueryGetEphemeralKey(includeDeleted);
 			
-			SQL += " AND ClientID = " + SQLUtils.quote(clientId);
+			SQL += " AND ClientID = ?";
 
 			if ( isPublished ) {
-				SQL += " AND Status = " + SQLUtils.quote("published");
+				SQL += " AND Status = 'published'";
 			}
 			
 			return SQL;
@@ -595,7 +876,7 @@ public class CommsStorage {
 			if ( includeDeleted ) {
 				SQL += " 1=1";
 			} else {
-				SQL += " NOT IsDeleted"; 
+				SQL += " IsDeleted = 0"; 
 			}
 
 	     	return SQL;
@@ -603,46 +884,59 @@ public class CommsStorage {
 		
 		public static EphemeralKey getEphemeralKey(Connection db, String clientId, String keyId, boolean includeDeleted) throws SQLException {
 			
-			String SQL = buildQueryGetEphemeralKeyById(clientId, keyId, includeDeleted);
+			String SQL = buildQueryGetEphemeralKeyById(includeDeleted);
 					
-			PreparedStatement pst = db.prepareStatement(SQL);
-			pst.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement pst = prepare(db, SQL);
+			
+			int col = 1;
+			pst.setString(col++, clientId);
+			pst.setString(col++, keyId);
 			
 			ResultSet rs = pst.executeQuery();
-			if ( !rs.next() ) {
-				return null;
+			try {
+				if ( !rs.next() ) {
+					return null;
+				}
+				
+				EphemeralKey key = new EphemeralKey();
+				key.setKeyId       (rs.getString("EphemeralKeyID"));
+				key.setPublicKey   (rs.getString("PublicKey"));
+				key.setPrivateKey  (rs.getString("PrivateKey"));
+				key.setStatus      (rs.getString("Status"));
+				key.setModifiedDate(SQLUtils.sqliteDatetime(rs.getString("ModifiedDate")));
+				
+				return key;
+			} finally {
+				rs.close();
 			}
-			
-			EphemeralKey key = new EphemeralKey();
-			key.setKeyId       (rs.getString("EphemeralKeyID"));
-			key.setPublicKey   (rs.getString("PublicKey"));
-			key.setPrivateKey  (rs.getString("PrivateKey"));
-			key.setStatus      (rs.getString("Status"));
-			key.setModifiedDate(SQLUtils.sqliteDatetime(rs.getString("ModifiedDate")));
-			
-			return key;
 		}
 
 		public static EphemeralKey[] getClientEphemeralKeys(Connection db, String clientId, boolean isPublished, boolean includeDeleted) throws SQLException {
 
-			String SQL = buildQueryGetEphemeralKeyByClient(clientId, isPublished, includeDeleted);
+			String SQL = buildQueryGetEphemeralKeyByClient(isPublished, includeDeleted);
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
+			
+			int col = 1;
+			st.setString(col++, clientId);
 
 			List<EphemeralKey> keys = new LinkedList<EphemeralKey>();
 			
 			ResultSet rs = st.executeQuery();
-			while ( rs.next() ) {
-			
-				EphemeralKey key = new EphemeralKey();
-				key.setKeyId       (rs.getString("EphemeralKeyID"));
-				key.setPublicKey   (rs.getString("PublicKey"));
-				key.setPrivateKey  (rs.getString("PrivateKey"));
-				key.setStatus      (rs.getString("Status"));
-				key.setModifiedDate(SQLUtils.sqliteDatetime(rs.getString("ModifiedDate")));
-			
-				keys.add(key);
+			try {
+				while ( rs.next() ) {
+				
+					EphemeralKey key = new EphemeralKey();
+					key.setKeyId       (rs.getString("EphemeralKeyID"));
+					key.setPublicKey   (rs.getString("PublicKey"));
+					key.setPrivateKey  (rs.getString("PrivateKey"));
+					key.setStatus      (rs.getString("Status"));
+					key.setModifiedDate(SQLUtils.sqliteDatetime(rs.getString("ModifiedDate")));
+				
+					keys.add(key);
+				}
+			} finally {
+				rs.close();
 			}
 			
 			return keys.toArray(new EphemeralKey[0]);
@@ -667,17 +961,23 @@ public class CommsStorage {
 
 				List<String> delKeys = new LinkedList<String>();
 	
-				String SQL = buildQueryGetEphemeralKeyByClient(clientId, true, false);
+				String SQL = buildQueryGetEphemeralKeyByClient(true, false);
 				
-				PreparedStatement st = db.prepareStatement(SQL);
-				st.setQueryTimeout(QUERY_TIMEOUT);
+				PreparedStatement st = prepare(db, SQL);
+				
+				int col = 1;
+				st.setString(col++, clientId);
 	
 				//If key is not in dictionary assume it has been provisioned or revoked
 				ResultSet rs = st.executeQuery();
-				while ( rs.next() ) {
-					if ( !mapKeys.containsKey(rs.getString("EphemeralKeyID")) ) {
-						delKeys.add(rs.getString("EphemeralKeyID"));
+				try {
+					while ( rs.next() ) {
+						if ( !mapKeys.containsKey(rs.getString("EphemeralKeyID")) ) {
+							delKeys.add(rs.getString("EphemeralKeyID"));
+						}
 					}
+				} finally {
+					rs.close();
 				}
 	
 				if ( delKeys.size() > 0 ) {
@@ -688,13 +988,15 @@ public class CommsStorage {
 						+ " ModifiedDate = CURRENT_TIMESTAMP"
 						+ " ,IsDeleted   = 1"
 						+ "\n"
-						+ "WHERE ";
-					
-					SQL += String.format(" EphemeralKeyID IN (%s)", SQLUtils.quoteArray(delKeys.toArray(new String[0])));
+						+ "WHERE"
+						+ " EphemeralKeyID = ?";
 	
-					PreparedStatement delSt = db.prepareStatement(SQL);
-					delSt.setQueryTimeout(QUERY_TIMEOUT);	
-					delSt.executeUpdate();
+					PreparedStatement delSt = prepare(db, SQL);
+					for (String keyId: delKeys) {
+						delSt.setString(1, keyId);
+						delSt.addBatch();
+					}
+					delSt.executeBatch();
 				}
 			}
 
@@ -726,8 +1028,7 @@ public class CommsStorage {
 				+ "\n"
 				+ "VALUES(?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);	
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key.getKeyId());
@@ -739,6 +1040,46 @@ public class CommsStorage {
 			st.executeUpdate();
 		}
 
+		/**
+		 * createEphemeralKeys()
+		 * 
+		 * Insert new keys with a single batched statement
+		 */
+		public static void createEphemeralKeys(Connection db, String clientId, List<EphemeralKey> keys) throws SQLException {
+			if ( keys.size() == 0 ) {
+				return;
+			}
+
+			String SQL = null;
+			
+			SQL = "INSERT INTO EphemeralKey"
+				+ "\n"
+				+ "("
+				+ " EphemeralKeyID"
+				+ " ,ClientID"
+				+ " ,PublicKey"
+				+ " ,PrivateKey"
+				+ " ,Status"
+				+ " ,ModifiedDate"
+				+ ")"
+				+ "\n"
+				+ "VALUES(?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+			PreparedStatement st = prepare(db, SQL);
+			
+			for (EphemeralKey key: keys) {
+				int col = 1;
+				st.setString(col++, key.getKeyId());
+				st.setString(col++, clientId);
+				st.setString(col++, key.getPublicKey());		
+				st.setString(col++, key.getPrivateKey());
+				st.setString(col++, key.getStatus());
+				st.addBatch();
+			}
+			
+			st.executeBatch();
+		}
+
 		public static void updateEphemeralKey(Connection db, EphemeralKey key) throws SQLException {
 
 			String SQL = null;
@@ -754,8 +1095,7 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " EphemeralKeyID = ?";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);	
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, key.getPublicKey());		
@@ -778,8 +1118,7 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " EphemeralKeyID = ?";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);	
+			PreparedStatement st = prepare(db, SQL);
 			
 			int col = 1;
 			st.setString(col++, keyId);
@@ -843,19 +1182,19 @@ public class CommsStorage {
 	
 		}
 	
-		protected static String buildQueryGetMessageById(int messageId, boolean includeDeleted) {
+		protected static String buildQueryGetMessageById(boolean includeDeleted) {
 			String SQL = buildQueryGetMessage(true, includeDeleted);
 			
-			SQL += " AND m.MessageID = " + SQLUtils.quote(messageId);
+			SQL += " AND m.MessageID = ?";
 			
 			return SQL;
 		}
 
 		/*
-		protected static String buildQueryGetMessageBySessionId(String sessionId, boolean includeRead, boolean includeDeleted) {
+		protected static String buildQueryGetMessageBySessionId(boolean includeRead, boolean includeDeleted) {
 			String SQL = buildQueryGetMessage(includeRead, includeDeleted);
 			
-			SQL += " AND ms.MessageSessionID = " + SQLUtils.quote(sessionId);
+			SQL += " AND ms.MessageSessionID = ?";
 			
 			return SQL;
 		}
@@ -894,30 +1233,30 @@ public class CommsStorage {
 			if ( includeDeleted ) {
 				SQL += " 1=1"; 				
 			} else {
-				SQL += " NOT IsDeleted"; 
+				SQL += " m.IsDeleted = 0"; 
 			}
 
 			if ( !includeRead ) {
-				SQL += " AND NOT IsRead";
+				SQL += " AND m.IsRead = 0";
 			}
 
 			return SQL;
 		}
 
-		protected static String buildQueryGetMessageSessionById(String sessionId) {
+		protected static String buildQueryGetMessageSessionById() {
 
 			String SQL = buildQueryGetMessageSession(true);
 			
-			SQL += " AND ms.MessageSessionID = " + SQLUtils.quote(sessionId);
+			SQL += " AND ms.MessageSessionID = ?";
 			
 			return SQL;
 		}
 
-		protected static String buildQueryGetMessageSessionByClient(String clientId) {
+		protected static String buildQueryGetMessageSessionByClient() {
 
 			String SQL = buildQueryGetMessageSession(false);
 			
-			SQL += " AND ms.OtherClientID = " + SQLUtils.quote(clientId);
+			SQL += " AND ms.OtherClientID = ?";
 			
 			return SQL;
 		}
@@ -944,7 +1283,7 @@ public class CommsStorage {
 			if ( includeClosed ) {
 				SQL += " 1=1"; 				
 			} else {
-				SQL += " NOT IsClosed"; 
+				SQL += " ms.State <> 'closed'"; 
 			}
 
 			return SQL;
@@ -979,18 +1318,23 @@ public class CommsStorage {
 			String SQL = null;
 			
 			//Get messages and session info for client
-			SQL = DefaultMessageDataMapper.buildQueryGetMessageById(messageId, false);
+			SQL = DefaultMessageDataMapper.buildQueryGetMessageById(false);
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
+			
+			int col = 1;
+			st.setInt(col++, messageId);
 			
 			ResultSet rs = st.executeQuery();
-
-			if ( !rs.next() ) {
-				throw new SQLException(String.format("Couldn't load message for MessageID '%d'", messageId));
+			try {
+				if ( !rs.next() ) {
+					throw new SQLException(String.format("Couldn't load message for MessageID '%d'", messageId));
+				}
+				
+				return buildMessage(db, rs);
+			} finally {
+				rs.close();
 			}
-			
-			return buildMessage(db, rs);
 		}
 
 		public static Message[] getMessages(Connection db) throws SQLException {
@@ -1022,8 +1366,7 @@ public class CommsStorage {
 			
 			SQL += sqlWhere;
 			
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
 			
 			for (int col = 0; col < sqlParams.size(); col++) {
 				st.setString(col+1, sqlParams.get(col));
@@ -1032,8 +1375,12 @@ public class CommsStorage {
 			
 			List<Message> messages = new LinkedList<Message>();
 
-			while ( rs.next() ) {
-				messages.add(buildMessage(db, rs));
+			try {
+				while ( rs.next() ) {
+					messages.add(buildMessage(db, rs));
+				}
+			} finally {
+				rs.close();
 			}
 			
 			return messages.toArray(new Message[0]);
@@ -1066,8 +1413,7 @@ public class CommsStorage {
 				+ "\n"
 				+ "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
 	
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 			int col = 1;
 			st.setString(col++, msg.getMessageSessionId());
 			st.setString(col++, msg.getSourceClientId());
@@ -1082,13 +1428,91 @@ public class CommsStorage {
 			st.executeUpdate();
 			
 			ResultSet generatedKeys = getGeneratedKeys(db);
-			if (generatedKeys.next()) {
-				return generatedKeys.getInt(1);
-			} else {
-				throw new SQLException("Creating message failed, no ID obtained.");
+			try {
+				if (generatedKeys.next()) {
+					return generatedKeys.getInt(1);
+				} else {
+					throw new SQLException("Creating message failed, no ID obtained.");
+				}
+			} finally {
+				generatedKeys.close();
 			}
 		}
 	
+		/**
+		 * createMessages()
+		 * 
+		 * Insert messages reusing a single prepared statement, creating any missing sessions first. Rows
+		 * are inserted one at a time so that the id of each message can be read back.
+		 * 
+		 * @return ids of created messages in the same order as msgs
+		 */
+		public static int[] createMessages(Connection db, List<EncodedMessage> msgs) throws SQLException {
+			int[] ids = new int[msgs.size()];
+			if ( msgs.size() == 0 ) {
+				return ids;
+			}
+			
+			Map<String, MessageSession> sessions = new HashMap<String, MessageSession>();
+			for (EncodedMessage msg: msgs) {
+				sessions.put(msg.getMessageSessionId(), msg.getSession());
+			}
+			for (MessageSession session: sessions.values()) {
+				if ( getMessageSession(db, session.getSessionId()) == null ) {
+					createMessageSession(db, session);
+				}
+			}
+			
+			String SQL = null;
+				
+			SQL = "INSERT INTO Message"
+				+ "\n"
+				+ "("
+				+ " MessageSessionID"
+				+ " ,SourceClientID"
+		    	+ " ,SourceEphemeralKeyID"
+		    	+ " ,DestinationClientID"
+		    	+ " ,DestinationEphemeralKeyID"
+				+ " ,Version"	    	
+				+ " ,Sequence"
+				+ " ,MessageType"
+				+ " ,Content"
+				+ " ,ModifiedDate"		
+				+ ")"
+				+ "\n"
+				+ "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+	
+			PreparedStatement st = prepare(db, SQL);
+			
+			for (int i = 0; i < msgs.size(); i++) {
+				EncodedMessage msg = msgs.get(i);
+				int col = 1;
+				st.setString(col++, msg.getMessageSessionId());
+				st.setString(col++, msg.getSourceClientId());
+				st.setString(col++, msg.getSourceKeyId());		
+				st.setString(col++, msg.getDestinationClientId());
+				st.setString(col++, msg.getDestinationKeyId());		
+				st.setString(col++, msg.getVersion());
+				st.setLong(col++, msg.getSequence());
+				st.setString(col++, msg.getMessageType());
+				st.setString(col++, msg.getContent());
+				st.executeUpdate();
+
+				ResultSet generatedKeys = getGeneratedKeys(db);
+				try {
+					if (generatedKeys.next()) {
+						ids[i] = generatedKeys.getInt(1);
+					} else {
+						throw new SQLException("Creating message failed, no ID obtained.");
+					}
+				} finally {
+					generatedKeys.close();
+				}
+			}
+			
+			return ids;
+		}
+	
 		public static void updateMessage(Connection db, int msgId, boolean isRead, boolean isDeleted) throws SQLException {
 			
 			String SQL = null;
@@ -1104,8 +1528,7 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " MessageID = ?";
 	
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 			int col = 1;
 			st.setInt(col++, isRead ? 1 : 0);			
 			st.setInt(col++, isDeleted ? 1 : 0);			
@@ -1128,8 +1551,7 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " MessageID = ?";
 	
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 			int col = 1;
 			st.setInt(col++, msgId);
 			
@@ -1151,31 +1573,43 @@ public class CommsStorage {
 
 		public static MessageSession getMessageSession(Connection db, String sessionId) throws SQLException {
 			
-			String SQL = buildQueryGetMessageSessionById(sessionId);
+			String SQL = buildQueryGetMessageSessionById();
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
+			
+			int col = 1;
+			st.setString(col++, sessionId);
 			
 			ResultSet rs = st.executeQuery();
-			if ( !rs.next() ) {
-				return null;
+			try {
+				if ( !rs.next() ) {
+					return null;
+				}
+				
+				return buildMessageSession(rs);
+			} finally {
+				rs.close();
 			}
-			
-			return buildMessageSession(rs);
 		}
 
 		public static MessageSession[] getMessageSessions(Connection db, String clientId) throws SQLException {
 			
-			String SQL = buildQueryGetMessageSessionByClient(clientId);
+			String SQL = buildQueryGetMessageSessionByClient();
 					
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);
+			PreparedStatement st = prepare(db, SQL);
+			
+			int col = 1;
+			st.setString(col++, clientId);
 			
 			List<MessageSession> sessions = new LinkedList<MessageSession>();
 
 			ResultSet rs = st.executeQuery();
-			while ( rs.next() ) {
-				sessions.add(buildMessageSession(rs));
+			try {
+				while ( rs.next() ) {
+					sessions.add(buildMessageSession(rs));
+				}
+			} finally {
+				rs.close();
 			}
 			
 			return sessions.toArray(new MessageSession[0]);
@@ -1202,8 +1636,7 @@ public class CommsStorage {
 				+ "\n"
 				+ "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
+			PreparedStatement st = prepare(db, SQL);
 			int col = 1;
 			st.setString(col++, session.getSessionId());
 			st.setString(col++, session.getEphemeralKeyId());
@@ -1227,13 +1660,13 @@ public class CommsStorage {
 			
 			String setClause = "";
 			if ( state != null ) {
-				setClause += (setClause.length() == 0 ? " " : " ,") + "State = " + SQLUtils.quote(state);
+				setClause += (setClause.length() == 0 ? " " : " ,") + "State = ?";
 			}
 			if ( sequence != null ) {
-				setClause += (setClause.length() == 0 ? " " : " ,") + "Sequence = " + sequence.longValue();
+				setClause += (setClause.length() == 0 ? " " : " ,") + "Sequence = ?";
 			}
 			if ( otherSequence != null ) {
-				setClause += (setClause.length() == 0 ? " " : " ,") + "OtherSequence = " + otherSequence.longValue();
+				setClause += (setClause.length() == 0 ? " " : " ,") + "OtherSequence = ?";
 			}
 			
 			String SQL = null;
@@ -1246,9 +1679,17 @@ public class CommsStorage {
 				+ "WHERE"
 				+ " MessageSessionID = ?";
 
-			PreparedStatement st = db.prepareStatement(SQL);
-			st.setQueryTimeout(QUERY_TIMEOUT);		
-			int col = 1;			
+			PreparedStatement st = prepare(db, SQL);
+			int col = 1;
+			if ( state != null ) {
+				st.setString(col++, state);
+			}
+			if ( sequence != null ) {
+				st.setLong(col++, sequence.longValue());
+			}
+			if ( otherSequence != null ) {
+				st.setLong(col++, otherSequence.longValue());
+			}
 			st.setString(col++, sessionId);
 
 			st.executeUpdate();
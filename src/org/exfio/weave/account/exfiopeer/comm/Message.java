@@ -22,6 +22,10 @@ public abstract class Message {
 	protected long   sequence;
 	protected String messageType;
 	protected Date   modifiedDate;
+	
+	//Id and modified time of message record on server, not stored locally
+	protected String recordId;
+	protected Double serverModified;
 
 	protected MessageSession session;
 	
@@ -41,6 +45,8 @@ public abstract class Message {
 		this.sequence            = msg.getSequence();
 		this.messageType         = msg.getMessageType();
 		this.modifiedDate        = msg.getModifiedDate();
+		this.recordId            = msg.getRecordId();
+		this.serverModified      = msg.getServerModified();
 		
 		this.session             = msg.getSession();
 	}
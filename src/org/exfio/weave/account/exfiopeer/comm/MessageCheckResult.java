@@ -0,0 +1,26 @@
+package org.exfio.weave.account.exfiopeer.comm;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * MessageCheckResult
+ *
+ * Outcome of Comms.checkMessages(), i.e. messages saved to local storage, whether any message could
+ * not be processed or deleted, the modified time of the message collection returned by deleting
+ * processed messages and the newest server modified time of the fetched message records
+ */
+@ToString
+public class MessageCheckResult {
+	@Getter protected Message[] received;
+	@Getter protected boolean failed;
+	@Getter protected Double deleteModified;
+	@Getter protected Double fetchedModified;
+
+	public MessageCheckResult(Message[] received, boolean failed, Double deleteModified, Double fetchedModified) {
+		this.received        = received;
+		this.failed          = failed;
+		this.deleteModified  = deleteModified;
+		this.fetchedModified = fetchedModified;
+	}
+}
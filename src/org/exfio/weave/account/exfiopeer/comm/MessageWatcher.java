@@ -0,0 +1,243 @@
+package org.exfio.weave.account.exfiopeer.comm;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.util.Log;
+
+/**
+ * MessageWatcher
+ *
+ * Poll the modified time of the message collection and only run Comms.checkMessages(), which also
+ * refreshes client records, when it has changed. Polling starts at minInterval and backs off
+ * exponentially to maxInterval while there is no activity. Any change, or a call to poke(), resets
+ * the interval to minInterval.
+ *
+ * Collection modified times come from info/collections, which is a single (conditional) request
+ * shared with other callers and cached for the StorageContext info/collections ttl. minInterval
+ * should not be shorter than that ttl.
+ *
+ * Newly received messages are delivered to listeners on the watcher thread.
+ */
+public class MessageWatcher {
+
+	public static final long DEFAULT_MIN_INTERVAL = 5 * 1000;
+	public static final long DEFAULT_MAX_INTERVAL = 5 * 60 * 1000;
+	public static final double DEFAULT_BACKOFF    = 2.0;
+
+	public interface MessageListener {
+		void messagesReceived(Message[] msgs);
+		void checkFailed(WeaveException e);
+	}
+
+	private final Comms comms;
+	private final List<MessageListener> listeners = new CopyOnWriteArrayList<MessageListener>();
+
+	private long minInterval  = DEFAULT_MIN_INTERVAL;
+	private long maxInterval  = DEFAULT_MAX_INTERVAL;
+	private double backoff    = DEFAULT_BACKOFF;
+
+	private ScheduledExecutorService scheduler = null;
+	private ScheduledFuture<?> nextPoll        = null;
+	private long interval;
+	private boolean polling     = false;
+	private boolean pokePending = false;
+
+	//Modified time of message collection when last checked, null forces a check
+	private Double lastModified = null;
+
+	public MessageWatcher(Comms comms) {
+		this.comms    = comms;
+		this.interval = minInterval;
+	}
+
+	public void addListener(MessageListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(MessageListener listener) {
+		listeners.remove(listener);
+	}
+
+	public synchronized void setIntervals(long minInterval, long maxInterval, double backoff) {
+		if ( minInterval <= 0 || maxInterval < minInterval || backoff < 1.0 ) {
+			throw new IllegalArgumentException(String.format("Invalid poll intervals min %d, max %d, backoff %.2f", minInterval, maxInterval, backoff));
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.backoff     = backoff;
+		this.interval    = Math.max(minInterval, Math.min(interval, maxInterval));
+	}
+
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	public synchronized boolean isRunning() {
+		return scheduler != null;
+	}
+
+	public synchronized void start() {
+		if ( scheduler != null ) {
+			return;
+		}
+
+		BasicThreadFactory factory = new BasicThreadFactory.Builder()
+			.namingPattern("weavemessagewatcher-%d")
+			.daemon(true)
+			.build();
+		scheduler    = Executors.newSingleThreadScheduledExecutor(factory);
+		interval     = minInterval;
+		lastModified = null;
+		polling      = false;
+		schedule(0);
+	}
+
+	public synchronized void stop() {
+		if ( scheduler == null ) {
+			return;
+		}
+		scheduler.shutdownNow();
+		scheduler   = null;
+		nextPoll    = null;
+		pokePending = false;
+	}
+
+	/**
+	 * poke()
+	 *
+	 * Poll now and reset interval to minInterval, e.g. after sending a message when a response is expected
+	 */
+	public synchronized void poke() {
+		if ( scheduler == null ) {
+			return;
+		}
+		interval = minInterval;
+		if ( polling ) {
+			//Poll in progress will reschedule immediately
+			pokePending = true;
+			return;
+		}
+		if ( nextPoll != null ) {
+			nextPoll.cancel(false);
+		}
+		schedule(0);
+	}
+
+	private synchronized void schedule(long delay) {
+		if ( scheduler == null ) {
+			return;
+		}
+		final ScheduledExecutorService owner = scheduler;
+		try {
+			nextPoll = scheduler.schedule(new Runnable() {
+				public void run() {
+					synchronized (MessageWatcher.this) {
+						//Stopped or restarted since scheduled
+						if ( owner != scheduler ) {
+							return;
+						}
+						polling = true;
+					}
+					poll(owner);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			//Stopped
+		}
+	}
+
+	private boolean hasMessagesSince(Double fetchedModified) {
+		if ( fetchedModified == null ) {
+			return true;
+		}
+		try {
+			return comms.hasMessagesSince(fetchedModified);
+		} catch (WeaveException e) {
+			Log.getInstance().warn("Couldn't check for new messages, checking again next poll - " + e.getMessage());
+			return true;
+		}
+	}
+
+	private void poll(ScheduledExecutorService owner) {
+		boolean activity = false;
+
+		try {
+			Double modified = comms.getMessagesModified();
+
+			if ( modified != null && !modified.equals(lastModified) ) {
+				Log.getInstance().debug(String.format("Message collection modified at '%.2f', checking messages", modified));
+
+				MessageCheckResult result = comms.checkMessages();
+				Message[] msgs = result.getReceived();
+
+				//Retries of failed messages back off unless there is new activity
+				activity = ( !result.isFailed() || msgs.length > 0 );
+
+				if ( result.isFailed() ) {
+					//Leave lastModified unchanged so that failed messages are checked again next poll
+					Log.getInstance().warn("Some messages couldn't be processed, checking again next poll");
+				} else if ( result.getDeleteModified() != null ) {
+					//Our own delete modifies the collection, don't treat it as new activity unless messages
+					//were sent between fetching and deleting, in which case they are checked next poll
+					lastModified = ( hasMessagesSince(result.getFetchedModified()) ? modified : result.getDeleteModified() );
+				} else {
+					//Use modified time from before check so that messages received during check are picked up next poll
+					lastModified = modified;
+				}
+
+				if ( msgs.length > 0 ) {
+					for (MessageListener listener: listeners) {
+						listener.messagesReceived(msgs);
+					}
+				}
+
+				if ( result.isFailed() ) {
+					WeaveException e = new WeaveException("Errors occurred while checking messages");
+					for (MessageListener listener: listeners) {
+						listener.checkFailed(e);
+					}
+				}
+			}
+		} catch (WeaveException e) {
+			Log.getInstance().warn("Couldn't check messages - " + e.getMessage());
+			for (MessageListener listener: listeners) {
+				listener.checkFailed(e);
+			}
+		} catch (RuntimeException e) {
+			//Keep watching if a listener fails
+			Log.getInstance().error("Error processing messages - " + e.getMessage());
+		}
+
+		synchronized (this) {
+			//Stopped or restarted while polling
+			if ( owner != scheduler ) {
+				return;
+			}
+			polling = false;
+			
+			if ( pokePending ) {
+				pokePending = false;
+				interval    = minInterval;
+				schedule(0);
+				return;
+			}
+			
+			if ( activity ) {
+				interval = minInterval;
+			} else {
+				interval = Math.min((long)(interval * backoff), maxInterval);
+			}
+			Log.getInstance().debug(String.format("Next message poll in %d ms", interval));
+			schedule(interval);
+		}
+	}
+}
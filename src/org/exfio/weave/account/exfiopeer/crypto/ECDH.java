@@ -15,9 +15,11 @@ import java.security.PublicKey;
 import java.security.Security;
 import java.security.spec.ECGenParameterSpec;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.crypto.KeyAgreement;
 
@@ -29,30 +31,94 @@ import org.exfio.weave.util.OSUtils;
 
 public class ECDH {
 
-	public KeyPair extractECDHKeyPair(String privateKey, String publicKey) throws WeaveException {
-		
-		//Extract keys from ASN.1 format
-		byte[] privateKeyBin = Base64.decodeBase64(privateKey);
-		byte[] publicKeyBin  = Base64.decodeBase64(publicKey);
-		
-		PrivateKey privateKeyObj = null;
-		PublicKey publicKeyObj   = null;
+	//Maximum number of decoded keys cached for each of private and public keys
+	public static final int KEY_CACHE_SIZE = 256;
+
+	//Decoded keys are cached by their base64 encoded form, which is the key's identity, hence a cached
+	//key can never be stale
+	private static final Map<String, PrivateKey> privateKeyCache = Collections.synchronizedMap(new KeyCache<PrivateKey>(KEY_CACHE_SIZE));
+	private static final Map<String, PublicKey> publicKeyCache   = Collections.synchronizedMap(new KeyCache<PublicKey>(KEY_CACHE_SIZE));
+
+	//KeyFactory and KeyAgreement instances are not thread safe hence they are cached per thread
+	private static final ThreadLocal<KeyFactory> keyFactory     = new ThreadLocal<KeyFactory>();
+	private static final ThreadLocal<KeyAgreement> keyAgreement = new ThreadLocal<KeyAgreement>();
+
+	private static KeyFactory getKeyFactory() throws WeaveException {
+		KeyFactory kf = keyFactory.get();
+		if ( kf == null ) {
+			try {
+				kf = KeyFactory.getInstance("ECDH", JCEProvider.getCryptoProvider());
+			} catch (NoSuchProviderException e) {
+				throw new WeaveException(e);
+			} catch (NoSuchAlgorithmException e) {
+				throw new WeaveException(e);
+			}
+			keyFactory.set(kf);
+		}
+		return kf;
+	}
+
+	private static KeyAgreement getKeyAgreement() throws WeaveException {
+		KeyAgreement ka = keyAgreement.get();
+		if ( ka == null ) {
+			try {
+				ka = KeyAgreement.getInstance("ECDH", JCEProvider.getCryptoProvider());
+			} catch (NoSuchProviderException e) {
+				throw new WeaveException(e);
+			} catch (NoSuchAlgorithmException e) {
+				throw new WeaveException(e);
+			}
+			keyAgreement.set(ka);
+		}
+		return ka;
+	}
 
+	/**
+	 * decodePrivateKey()
+	 * 
+	 * Extract private key from base64 encoded ASN.1 format, cached by encoded key
+	 */
+	public PrivateKey decodePrivateKey(String privateKey) throws WeaveException {
+		PrivateKey privateKeyObj = privateKeyCache.get(privateKey);
+		if ( privateKeyObj == null ) {
+			privateKeyObj = decodePrivateKey(Base64.decodeBase64(privateKey));
+			privateKeyCache.put(privateKey, privateKeyObj);
+		}
+		return privateKeyObj;
+	}
+
+	public PrivateKey decodePrivateKey(byte[] privateKey) throws WeaveException {
 		try {
-			KeyFactory kf          = KeyFactory.getInstance("ECDH", JCEProvider.getCryptoProvider());
-			KeySpec privateKeySpec = new PKCS8EncodedKeySpec(privateKeyBin);
-			privateKeyObj          = kf.generatePrivate(privateKeySpec);
-			KeySpec publicKeySpec  = new X509EncodedKeySpec(publicKeyBin);
-			publicKeyObj           = kf.generatePublic(publicKeySpec);
-		} catch (NoSuchProviderException e) {
-			throw new WeaveException(e);
-		} catch (NoSuchAlgorithmException e) {
+			return getKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(privateKey));
+		} catch (InvalidKeySpecException e) {
 			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * decodePublicKey()
+	 * 
+	 * Extract public key from base64 encoded ASN.1 format, cached by encoded key
+	 */
+	public PublicKey decodePublicKey(String publicKey) throws WeaveException {
+		PublicKey publicKeyObj = publicKeyCache.get(publicKey);
+		if ( publicKeyObj == null ) {
+			publicKeyObj = decodePublicKey(Base64.decodeBase64(publicKey));
+			publicKeyCache.put(publicKey, publicKeyObj);
+		}
+		return publicKeyObj;
+	}
+
+	public PublicKey decodePublicKey(byte[] publicKey) throws WeaveException {
+		try {
+			return getKeyFactory().generatePublic(new X509EncodedKeySpec(publicKey));
 		} catch (InvalidKeySpecException e) {
 			throw new WeaveException(e);
 		}
-		
-		return new KeyPair(publicKeyObj, privateKeyObj);
+	}
+
+	public KeyPair extractECDHKeyPair(String privateKey, String publicKey) throws WeaveException {
+		return new KeyPair(decodePublicKey(publicKey), decodePrivateKey(privateKey));
 	}
 	
 	public KeyPair generateECDHKeyPair() throws WeaveException {
@@ -76,46 +142,19 @@ public class ECDH {
 	}
 	
 	public byte[] generateECDHSecret(String keyAPrivate, String keyBPublic) throws WeaveException {
-		//Extract keys from Base64 format
-		byte[] keyAPrivateBin = Base64.decodeBase64(keyAPrivate);
-		byte[] keyBPublicBin = Base64.decodeBase64(keyBPublic);
-		return generateECDHSecret(keyAPrivateBin, keyBPublicBin);
+		return generateECDHSecret(decodePrivateKey(keyAPrivate), decodePublicKey(keyBPublic));
 	}
 	
 	public byte[] generateECDHSecret(byte[] keyAPrivate, byte[] keyBPublic) throws WeaveException {
-
-		//Extract keys from ASN.1 format
-		PrivateKey keyAPrivateObj = null;
-		PublicKey keyBPublicObj   = null;
-
-		try {
-			KeyFactory kf           = KeyFactory.getInstance("ECDH", JCEProvider.getCryptoProvider());
-			KeySpec keyAPrivateSpec = new PKCS8EncodedKeySpec(keyAPrivate);
-			keyAPrivateObj          = kf.generatePrivate(keyAPrivateSpec);
-			KeySpec keyBPublicSpec  = new X509EncodedKeySpec(keyBPublic);
-			keyBPublicObj           = kf.generatePublic(keyBPublicSpec);
-		} catch (NoSuchProviderException e) {
-			throw new WeaveException(e);
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
-		} catch (InvalidKeySpecException e) {
-			throw new WeaveException(e);
-		}
-		
-		return generateECDHSecret(keyAPrivateObj, keyBPublicObj);
+		return generateECDHSecret(decodePrivateKey(keyAPrivate), decodePublicKey(keyBPublic));
 	}
 	
 	public byte[] generateECDHSecret(PrivateKey keyAPrivate, PublicKey keyBPublic) throws WeaveException {
 		
-		KeyAgreement ka = null;
+		KeyAgreement ka = getKeyAgreement();
 		try {
-			ka = KeyAgreement.getInstance("ECDH", JCEProvider.getCryptoProvider());
 			ka.init(keyAPrivate);
 			ka.doPhase(keyBPublic, true);
-		} catch (NoSuchProviderException e) {
-			throw new WeaveException(e);
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
 			throw new WeaveException(e);
 		}
@@ -127,11 +166,13 @@ public class ECDH {
 		return get3DHEKeyPair(identityPrivateKey, ephemeralPrivateKey, otherIdentityPublicKey, otherEphemeralPublicKey, true);
 	}
 	public WeaveKeyPair get3DHEKeyPair(String identityPrivateKey, String ephemeralPrivateKey, String otherIdentityPublicKey, String otherEphemeralPublicKey, boolean isAlice) throws WeaveException {
-		byte[] identityPrivateKeyBin = Base64.decodeBase64(identityPrivateKey);
-		byte[] ephemeralPrivateKeyBin = Base64.decodeBase64(ephemeralPrivateKey);
-		byte[] otherIdentityPublicKeyBin = Base64.decodeBase64(otherIdentityPublicKey);
-		byte[] otherEphemeralPublicKeyBin = Base64.decodeBase64(otherEphemeralPublicKey);
-		return get3DHEKeyPair(identityPrivateKeyBin, ephemeralPrivateKeyBin, otherIdentityPublicKeyBin, otherEphemeralPublicKeyBin, isAlice);
+		return get3DHEKeyPair(
+			decodePrivateKey(identityPrivateKey),
+			decodePrivateKey(ephemeralPrivateKey),
+			decodePublicKey(otherIdentityPublicKey),
+			decodePublicKey(otherEphemeralPublicKey),
+			isAlice
+		);
 	}
 
 	public WeaveKeyPair get3DHEKeyPair(byte[] identityPrivateKey, byte[] ephemeralPrivateKey, byte[] otherIdentityPublicKey, byte[] otherEphemeralPublicKey) throws WeaveException {
@@ -139,6 +180,16 @@ public class ECDH {
 	}
 	
 	public WeaveKeyPair get3DHEKeyPair(byte[] identityPrivateKey, byte[] ephemeralPrivateKey, byte[] otherIdentityPublicKey, byte[] otherEphemeralPublicKey, boolean isAlice) throws WeaveException {
+		return get3DHEKeyPair(
+			decodePrivateKey(identityPrivateKey),
+			decodePrivateKey(ephemeralPrivateKey),
+			decodePublicKey(otherIdentityPublicKey),
+			decodePublicKey(otherEphemeralPublicKey),
+			isAlice
+		);
+	}
+
+	public WeaveKeyPair get3DHEKeyPair(PrivateKey identityPrivateKey, PrivateKey ephemeralPrivateKey, PublicKey otherIdentityPublicKey, PublicKey otherEphemeralPublicKey, boolean isAlice) throws WeaveException {
 
 		//Generate 3DHE shared secret
 		byte[] sharedSecretBin = null;
@@ -178,4 +229,24 @@ public class ECDH {
 		return keyPair;
 	}
 
+	/**
+	 * KeyCache
+	 * 
+	 * Least recently used map of encoded key to decoded key
+	 */
+	private static class KeyCache<T> extends LinkedHashMap<String, T> {
+		private static final long serialVersionUID = 3094614871853095617L;
+
+		private final int maxSize;
+
+		KeyCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+			return size() > maxSize;
+		}
+	}
 }
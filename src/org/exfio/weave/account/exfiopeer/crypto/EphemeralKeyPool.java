@@ -0,0 +1,121 @@
+package org.exfio.weave.account.exfiopeer.crypto;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.util.Log;
+
+/**
+ * EphemeralKeyPool
+ *
+ * Bounded pool of ECDH key pairs generated ahead of time on a background thread, so that publishing
+ * ephemeral keys and creating message sessions don't wait on elliptic curve key generation. Whenever
+ * a key pair is taken the pool is topped up in the background. If the pool is empty key pairs are
+ * generated on the calling thread, hence take() always succeeds.
+ */
+public class EphemeralKeyPool {
+
+	public static final int DEFAULT_POOL_SIZE = 20;
+
+	private static EphemeralKeyPool defaultPool = null;
+
+	private final ECDH ecdh;
+	private final BlockingQueue<KeyPair> keyPairs;
+	private final ExecutorService generator;
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+	public static synchronized EphemeralKeyPool getDefault() {
+		if ( defaultPool == null ) {
+			defaultPool = new EphemeralKeyPool(DEFAULT_POOL_SIZE);
+		}
+		return defaultPool;
+	}
+
+	public EphemeralKeyPool(int size) {
+		this.ecdh     = new ECDH();
+		this.keyPairs = new LinkedBlockingQueue<KeyPair>(size);
+
+		BasicThreadFactory factory = new BasicThreadFactory.Builder()
+			.namingPattern("weaveekeys-%d")
+			.daemon(true)
+			.priority(Thread.MIN_PRIORITY)
+			.build();
+		this.generator = Executors.newSingleThreadExecutor(factory);
+	}
+
+	public int size() {
+		return keyPairs.size();
+	}
+
+	/**
+	 * prefill()
+	 *
+	 * Start filling pool in background, e.g. on client start up
+	 */
+	public void prefill() {
+		scheduleRefill();
+	}
+
+	public KeyPair take() throws WeaveException {
+		KeyPair keyPair = keyPairs.poll();
+		scheduleRefill();
+
+		if ( keyPair == null ) {
+			Log.getInstance().debug("Ephemeral key pool empty, generating key pair");
+			keyPair = ecdh.generateECDHKeyPair();
+		}
+		return keyPair;
+	}
+
+	public List<KeyPair> take(int count) throws WeaveException {
+		List<KeyPair> taken = new ArrayList<KeyPair>(count);
+		keyPairs.drainTo(taken, count);
+		scheduleRefill();
+
+		if ( taken.size() < count ) {
+			Log.getInstance().debug(String.format("Ephemeral key pool short %d key pairs, generating", count - taken.size()));
+		}
+		while ( taken.size() < count ) {
+			taken.add(ecdh.generateECDHKeyPair());
+		}
+		return taken;
+	}
+
+	public void shutdown() {
+		generator.shutdownNow();
+	}
+
+	private void scheduleRefill() {
+		if ( keyPairs.remainingCapacity() == 0 || !refilling.compareAndSet(false, true) ) {
+			return;
+		}
+
+		try {
+			generator.execute(new Runnable() {
+				public void run() {
+					try {
+						while ( keyPairs.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted() ) {
+							keyPairs.offer(ecdh.generateECDHKeyPair());
+						}
+					} catch (WeaveException e) {
+						Log.getInstance().warn("Couldn't pre-generate ephemeral key pair - " + e.getMessage());
+					} finally {
+						refilling.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			refilling.set(false);
+		}
+	}
+}
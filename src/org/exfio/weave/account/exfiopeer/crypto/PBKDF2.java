@@ -1,7 +1,6 @@
 package org.exfio.weave.account.exfiopeer.crypto;
 
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 
@@ -9,12 +8,12 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 
 import org.exfio.weave.util.Base64;
+import org.exfio.weave.crypto.RandomSource;
 
 public class PBKDF2 {
 
 	public byte[] generatePBKDF2Salt(int size) {
-		SecureRandom rnd = new SecureRandom();
-        return rnd.generateSeed(size);
+        return RandomSource.getDefault().nextBytes(size);
 	}
 	
 	public String generatePBKDF2Digest(String cleartext, byte[] salt, int iterations, int length) {
@@ -36,6 +36,7 @@ import org.exfio.weave.client.WeaveClientFactory;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
 import org.exfio.weave.crypto.WeaveSyncV5Crypto;
 import org.exfio.weave.crypto.WeaveKeyPair;
+import org.exfio.weave.net.HttpConnectionPool;
 import org.exfio.weave.storage.StorageContext;
 import org.exfio.weave.storage.StorageParams;
 import org.exfio.weave.storage.StorageV1_5;
@@ -70,7 +71,11 @@ public class FxAccount extends WeaveAccount {
 	private FxAccountSyncToken syncToken;
 
 	public FxAccount() {
-		super();
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public FxAccount(HttpConnectionPool connectionPool) {
+		super(connectionPool);
 		this.version  = ApiVersion.v1_5;
 		this.accountServer = null;
 		this.tokenServer   = null;
@@ -214,7 +219,7 @@ public class FxAccount extends WeaveAccount {
 	public String getStatus() {
 		try {
 			//Initialise storage client with account details
-			StorageContext storageClient = new StorageV1_5();
+			StorageContext storageClient = new StorageV1_5(httpClient.getConnectionPool());
 			storageClient.init(this.getStorageParams());
 	
 			//Initialise server meta data
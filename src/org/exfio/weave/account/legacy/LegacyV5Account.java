@@ -6,7 +6,6 @@ import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Map;
 import java.util.Properties;
 
@@ -32,6 +31,7 @@ import org.exfio.weave.crypto.WeaveSyncV5Crypto;
 import org.exfio.weave.crypto.WeaveKeyPair;
 import org.exfio.weave.net.HttpException;
 import org.exfio.weave.net.HttpClient;
+import org.exfio.weave.net.HttpConnectionPool;
 import org.exfio.weave.storage.StorageContext;
 import org.exfio.weave.storage.StorageParams;
 import org.exfio.weave.storage.StorageV1_1;
@@ -40,6 +40,7 @@ import org.exfio.weave.storage.WeaveCollectionInfo;
 import org.exfio.weave.util.Hex;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.URIUtils;
+import org.exfio.weave.crypto.RandomSource;
 
 //FIXME - Add support for account management
 public class LegacyV5Account extends WeaveAccount {
@@ -53,7 +54,11 @@ public class LegacyV5Account extends WeaveAccount {
 	private WeaveKeyPair keyPair;
 	
 	public LegacyV5Account() {
-		super();
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public LegacyV5Account(HttpConnectionPool connectionPool) {
+		super(connectionPool);
 		this.version  = ApiVersion.v1_1;
 		this.baseURL  = null;
 		this.user     = null;
@@ -132,8 +137,7 @@ public class LegacyV5Account extends WeaveAccount {
 		} 
 
 		// Generate sync key
-		SecureRandom rnd = new SecureRandom();
-		byte[] syncKeyBin = rnd.generateSeed(16);
+		byte[] syncKeyBin = RandomSource.getDefault().nextBytes(16);
 		
 		Base32 b32codec = new Base32();
 		String syncKeyB32 = b32codec.encodeToString(syncKeyBin);
@@ -149,7 +153,7 @@ public class LegacyV5Account extends WeaveAccount {
 		init(baseURL, user, password, syncKey);
 
 		//Initialise storage client with account details
-		StorageContext storageClient = new StorageV1_1();
+		StorageContext storageClient = new StorageV1_1(httpClient.getConnectionPool());
 		storageClient.init(this.getStorageParams());
 
 		//Initialise server meta data
@@ -162,7 +166,7 @@ public class LegacyV5Account extends WeaveAccount {
 	public String getStatus() {
 		try {
 			//Initialise storage client with account details
-			StorageContext storageClient = new StorageV1_1();
+			StorageContext storageClient = new StorageV1_1(httpClient.getConnectionPool());
 			storageClient.init(this.getStorageParams());
 	
 			//Initialise server meta data
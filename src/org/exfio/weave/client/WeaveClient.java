@@ -12,6 +12,7 @@ package org.exfio.weave.client;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.json.simple.parser.ParseException;
 
@@ -20,11 +21,16 @@ import org.exfio.weave.account.WeaveAccount;
 import org.exfio.weave.account.WeaveAccountParams;
 import org.exfio.weave.client.WeaveClientFactory.StorageVersion;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.crypto.WeaveKeyPair;
 import org.exfio.weave.crypto.WeaveSyncV5Crypto;
 import org.exfio.weave.storage.NotFoundException;
 import org.exfio.weave.storage.StorageContext;
 import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeaveBasicObjectHandler;
+import org.exfio.weave.storage.WeaveCollectionCursor;
 import org.exfio.weave.storage.WeaveCollectionInfo;
+import org.exfio.weave.storage.WeaveObjectStore;
+import org.exfio.weave.storage.WeavePostResult;
 
 public abstract class WeaveClient {
 	
@@ -32,6 +38,8 @@ public abstract class WeaveClient {
 	protected WeaveAccountParams accountParams = null;
 	protected StorageContext storageClient = null;
 	protected WeaveSyncV5Crypto cryptoClient = null;
+	protected ForkJoinPool decryptPool = null;
+	protected boolean ownsDecryptPool = false;
 	
 	public abstract void init(WeaveAccountParams params) throws WeaveException;
 
@@ -65,19 +73,48 @@ public abstract class WeaveClient {
 	public WeaveBasicObject get(String collection, String id, boolean decrypt) throws WeaveException, NotFoundException {
 		WeaveBasicObject wbo = this.storageClient.get(collection, id);
 		if ( decrypt ) {
-			try {
-				if ( this.cryptoClient.isEncrypted(wbo) ) {
-					wbo = this.cryptoClient.decryptWeaveBasicObject(wbo, collection);
-				} else {
-					throw new WeaveException("Weave Basic Object payload not encrypted");
-				}
-			} catch (ParseException e) {
-				throw new WeaveException(e);
-			}
+			wbo = decryptWeaveBasicObject(wbo, collection);
+		}
+		return wbo;
+	}
+
+	/**
+	 * get()
+	 * 
+	 * Conditional get, i.e. if WBO has not been modified since cached copy the cached (decrypted) WBO is returned
+	 */
+	public WeaveBasicObject get(String collection, String id, WeaveBasicObject cached, boolean decrypt) throws WeaveException, NotFoundException {
+		WeaveBasicObject wbo = this.storageClient.get(collection, id, cached);
+		if ( decrypt && wbo != cached ) {
+			wbo = decryptWeaveBasicObject(wbo, collection);
 		}
 		return wbo;
 	}
 
+	WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		try {
+			if ( this.cryptoClient.isEncrypted(wbo) ) {
+				return this.cryptoClient.decryptWeaveBasicObject(wbo, collection);
+			} else {
+				throw new WeaveException("Weave Basic Object payload not encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	private WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, WeaveKeyPair keyPair) throws WeaveException {
+		try {
+			if ( this.cryptoClient.isEncrypted(wbo) ) {
+				return this.cryptoClient.decryptWeaveBasicObject(wbo, keyPair);
+			} else {
+				throw new WeaveException("Weave Basic Object payload not encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+	}
+
 	public String[] getCollectionIds(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort) throws WeaveException, NotFoundException {
 		return this.storageClient.getCollectionIds(collection, ids, older, newer, index_above, index_below, limit, offset, sort);
 	}
@@ -91,23 +128,146 @@ public abstract class WeaveClient {
 	}
 
 	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean decrypt) throws WeaveException, NotFoundException {
+		return getCollection(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, decrypt, false);
+	}
+
+	/**
+	 * getCollection()
+	 * 
+	 * If lazy is true WBOs are returned as LazyWeaveBasicObjects and each payload is only decrypted when it is first read
+	 */
+	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean decrypt, boolean lazy) throws WeaveException, NotFoundException {
 		WeaveBasicObject[] colWbo = this.storageClient.getCollection(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format);
 		if ( decrypt ) {
-			try {
-				for (int i = 0; i < colWbo.length; i++) {
-					if ( this.cryptoClient.isEncrypted(colWbo[i]) ) {
-						colWbo[i] = this.cryptoClient.decryptWeaveBasicObject(colWbo[i], collection);
-					} else {
-						throw new WeaveException("Weave Basic Object payload not encrypted");
-					}
+			decryptWeaveBasicObjects(colWbo, collection, lazy);
+		}
+		return colWbo;
+	}
+
+	/**
+	 * setDecryptPool()
+	 * 
+	 * Decrypt collections in parallel on given fork-join pool, which may be shared by clients. Null
+	 * to decrypt on the calling thread. The pool is not shut down by this client.
+	 */
+	public void setDecryptPool(ForkJoinPool pool) {
+		replaceDecryptPool(pool, false);
+	}
+
+	/**
+	 * setDecryptParallelism()
+	 * 
+	 * Decrypt collections in parallel on a dedicated fork-join pool with given parallelism, which is
+	 * shut down when replaced or when client is closed
+	 */
+	public void setDecryptParallelism(int parallelism) {
+		replaceDecryptPool(( parallelism > 1 ? new ForkJoinPool(parallelism) : null ), true);
+	}
+
+	private synchronized void replaceDecryptPool(ForkJoinPool pool, boolean owned) {
+		if ( decryptPool != null && ownsDecryptPool && decryptPool != pool ) {
+			decryptPool.shutdown();
+		}
+		this.decryptPool     = pool;
+		this.ownsDecryptPool = ( pool != null && owned );
+	}
+
+	void decryptWeaveBasicObjects(WeaveBasicObject[] colWbo, String collection, boolean lazy) throws WeaveException {
+		if ( lazy ) {
+			this.cryptoClient.lazyDecryptWeaveBasicObjects(colWbo, collection);
+			return;
+		}
+		if ( decryptPool != null && colWbo.length > WeaveSyncV5Crypto.PARALLEL_DECRYPT_THRESHOLD ) {
+			this.cryptoClient.decryptWeaveBasicObjects(colWbo, collection, decryptPool);
+			return;
+		}
+		if ( colWbo.length == 0 ) {
+			return;
+		}
+		//Resolve key once for whole collection
+		WeaveKeyPair keyPair = this.cryptoClient.getKeyPair(collection);
+		for (int i = 0; i < colWbo.length; i++) {
+			colWbo[i] = decryptWeaveBasicObject(colWbo[i], keyPair);
+		}
+	}
+
+	/**
+	 * getCollection()
+	 * 
+	 * Stream collection, optionally decrypting each WBO before passing it to handler
+	 * 
+	 * @return number of WBOs processed
+	 */
+	public int getCollection(final String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, final boolean decrypt, final WeaveBasicObjectHandler handler) throws WeaveException, NotFoundException {
+		//Resolve key once for whole collection
+		final WeaveKeyPair keyPair = ( decrypt ? this.cryptoClient.getKeyPair(collection) : null );
+
+		return this.storageClient.getCollection(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, new WeaveBasicObjectHandler() {
+			public void handle(WeaveBasicObject wbo) throws WeaveException {
+				if ( decrypt ) {
+					wbo = decryptWeaveBasicObject(wbo, keyPair);
 				}
-			} catch (ParseException e) {
-				throw new WeaveException(e);
+				handler.handle(wbo);
 			}
+		});
+	}
+
+	/**
+	 * refreshCollection()
+	 * 
+	 * Incrementally bring local copy of collection up to date with server
+	 * 
+	 * @return number of WBOs downloaded
+	 */
+	public int refreshCollection(WeaveObjectStore store, String collection, boolean prune) throws WeaveException {
+		return store.refresh(this.storageClient, collection, this.storageClient.getInfoCollections(), prune);
+	}
+
+	/**
+	 * getCollection()
+	 * 
+	 * Get collection from local store, optionally refreshing it first
+	 */
+	public WeaveBasicObject[] getCollection(WeaveObjectStore store, String collection, boolean refresh, boolean decrypt) throws WeaveException {
+		return getCollection(store, collection, refresh, decrypt, false);
+	}
+
+	public WeaveBasicObject[] getCollection(WeaveObjectStore store, String collection, boolean refresh, boolean decrypt, boolean lazy) throws WeaveException {
+		if ( refresh ) {
+			refreshCollection(store, collection, false);
+		}
+		WeaveBasicObject[] colWbo = store.getCollection(collection);
+		if ( decrypt ) {
+			decryptWeaveBasicObjects(colWbo, collection, lazy);
 		}
 		return colWbo;
 	}
 
+	public WeaveCollectionCursor getCollectionCursor(String collection) throws WeaveException {
+		//Stable sort order so that v1.1 offsets don't skip records
+		return getCollectionCursor(collection, null, null, null, null, null, WeaveCollectionCursor.DEFAULT_SORT, WeaveCollectionCursor.DEFAULT_PAGE_SIZE, true, true);
+	}
+
+	/**
+	 * getCollectionCursor()
+	 * 
+	 * Iterate over collection in pages of pageSize WBOs, optionally prefetching the next page and decrypting each WBO
+	 */
+	public WeaveCollectionCursor getCollectionCursor(final String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, int pageSize, boolean prefetch, final boolean decrypt) throws WeaveException {
+		//Resolve key once for lifetime of cursor
+		final WeaveKeyPair keyPair = ( decrypt ? this.cryptoClient.getKeyPair(collection) : null );
+
+		return new WeaveCollectionCursor(this.storageClient, collection, ids, older, newer, index_above, index_below, sort, pageSize, prefetch) {
+			@Override
+			protected WeaveBasicObject process(WeaveBasicObject wbo) throws WeaveException {
+				if ( decrypt ) {
+					wbo = decryptWeaveBasicObject(wbo, keyPair);
+				}
+				return wbo;
+			}
+		};
+	}
+
 	public WeaveCollectionInfo getCollectionInfo(String collection) throws WeaveException, NotFoundException { return getCollectionInfo(collection, false, false); }
 
 	public WeaveCollectionInfo getCollectionInfo(String collection, boolean getcount, boolean getusage) throws WeaveException, NotFoundException {
@@ -122,19 +282,74 @@ public abstract class WeaveClient {
 	
 	public Double put(String collection, String id, WeaveBasicObject wbo, boolean encrypt) throws WeaveException {
 		if ( encrypt ) {
-			try {
-				if ( !this.cryptoClient.isEncrypted(wbo) ) {
-					wbo = this.cryptoClient.encryptWeaveBasicObject(wbo, collection);
-				} else {
-					throw new WeaveException("Weave Basic Object payload already encrypted");
-				}
-			} catch (ParseException e) {
-				throw new WeaveException(e);
-			}
+			wbo = encryptWeaveBasicObject(wbo, collection);
 		}
 		return this.storageClient.put(collection, id, wbo);
 	}
 
+	/**
+	 * put()
+	 * 
+	 * Conditional put, i.e. PreconditionFailedException is thrown if WBO has been modified since ifUnmodifiedSince
+	 */
+	public Double put(String collection, String id, WeaveBasicObject wbo, boolean encrypt, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		if ( encrypt ) {
+			wbo = encryptWeaveBasicObject(wbo, collection);
+		}
+		return this.storageClient.put(collection, id, wbo, ifUnmodifiedSince);
+	}
+
+	WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		try {
+			if ( !this.cryptoClient.isEncrypted(wbo) ) {
+				return this.cryptoClient.encryptWeaveBasicObject(wbo, collection);
+			} else {
+				throw new WeaveException("Weave Basic Object payload already encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	private WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, WeaveKeyPair keyPair) throws WeaveException {
+		try {
+			if ( !this.cryptoClient.isEncrypted(wbo) ) {
+				return this.cryptoClient.encryptWeaveBasicObject(wbo, keyPair);
+			} else {
+				throw new WeaveException("Weave Basic Object payload already encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	public WeavePostResult postCollection(String collection, WeaveBasicObject[] wbos) throws WeaveException { return postCollection(collection, wbos, true, false); }
+
+	/**
+	 * postCollection()
+	 * 
+	 * Upload WBOs to collection in batches sized according to server limits, optionally as a single atomic batch
+	 */
+	public WeavePostResult postCollection(String collection, WeaveBasicObject[] wbos, boolean encrypt, boolean atomic) throws WeaveException {
+		if ( encrypt ) {
+			wbos = encryptWeaveBasicObjects(wbos, collection);
+		}
+		return this.storageClient.postCollection(collection, wbos, atomic);
+	}
+
+	WeaveBasicObject[] encryptWeaveBasicObjects(WeaveBasicObject[] wbos, String collection) throws WeaveException {
+		if ( wbos.length == 0 ) {
+			return wbos;
+		}
+		//Resolve key once for whole batch
+		WeaveKeyPair keyPair = this.cryptoClient.getKeyPair(collection);
+		WeaveBasicObject[] encWbos = new WeaveBasicObject[wbos.length];
+		for (int i = 0; i < wbos.length; i++) {
+			encWbos[i] = encryptWeaveBasicObject(wbos[i], keyPair);
+		}
+		return encWbos;
+	}
+
 	public Double delete(String collection, String id) throws NotFoundException, WeaveException {
 		if (id == null) {
 			throw new WeaveException("Id parameter cannot be null");
@@ -142,6 +357,10 @@ public abstract class WeaveClient {
 		return this.storageClient.delete(collection, id);
 	}
 
+	public Double delete(String collection, String id, Double ifUnmodifiedSince) throws NotFoundException, WeaveException, PreconditionFailedException {
+		return this.storageClient.delete(collection, id, ifUnmodifiedSince);
+	}
+
 	public Double deleteCollection(String collection) throws WeaveException, NotFoundException {
 		return this.storageClient.deleteCollection(collection);
 	}
@@ -155,6 +374,7 @@ public abstract class WeaveClient {
 	public ApiVersion getApiVersion() { return getApiClient().getApiVersion(); }
 
 	public void close() throws IOException {
+		replaceDecryptPool(null, false);
 		getApiClient().close();
 	}
 }
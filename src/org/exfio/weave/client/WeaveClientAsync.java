@@ -0,0 +1,207 @@
+package org.exfio.weave.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.http.concurrent.FutureCallback;
+
+import org.exfio.weave.net.HttpRequestFuture;
+import org.exfio.weave.storage.StorageContextAsync;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.storage.WeavePostResult;
+
+/**
+ * WeaveClientAsync
+ *
+ * Asynchronous counterpart to WeaveClient. Requests are non-blocking, see StorageContextAsync, while
+ * decryption and encryption are performed on a crypto executor rather than the I/O dispatch threads.
+ * Unless an executor is provided all instances share the default crypto executor, which has one
+ * thread per processor.
+ *
+ */
+public class WeaveClientAsync {
+
+	private static Executor defaultCryptoExecutor = null;
+
+	private WeaveClient weaveClient;
+	private StorageContextAsync storageClient;
+	private Executor cryptoExecutor;
+
+	public WeaveClientAsync(WeaveClient weaveClient) {
+		this(weaveClient, getDefaultCryptoExecutor());
+	}
+
+	public WeaveClientAsync(WeaveClient weaveClient, Executor cryptoExecutor) {
+		this.weaveClient    = weaveClient;
+		this.storageClient  = new StorageContextAsync(weaveClient.getApiClient());
+		this.cryptoExecutor = cryptoExecutor;
+	}
+
+	public static synchronized Executor getDefaultCryptoExecutor() {
+		if ( defaultCryptoExecutor == null ) {
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+				.namingPattern("weavecrypto-%d")
+				.daemon(true)
+				.build();
+			defaultCryptoExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), factory);
+		}
+		return defaultCryptoExecutor;
+	}
+
+	public WeaveClient getWeaveClient() {
+		return weaveClient;
+	}
+
+	public Future<WeaveBasicObject> getAsync(String collection, String id) {
+		return getAsync(collection, id, true, null);
+	}
+
+	public Future<WeaveBasicObject> getAsync(final String collection, String id, final boolean decrypt, FutureCallback<WeaveBasicObject> callback) {
+		final HttpRequestFuture<WeaveBasicObject> future = new HttpRequestFuture<WeaveBasicObject>(callback);
+
+		future.setPending(storageClient.getAsync(collection, id, new ChainedCallback<WeaveBasicObject>(future) {
+			public void completed(final WeaveBasicObject wbo) {
+				if ( !decrypt ) {
+					future.completed(wbo);
+					return;
+				}
+				runCrypto(future, new CryptoTask() {
+					public void run() throws Exception {
+						future.completed(weaveClient.decryptWeaveBasicObject(wbo, collection));
+					}
+				});
+			}
+		}));
+
+		return future;
+	}
+
+	public Future<WeaveBasicObject[]> getCollectionAsync(String collection) {
+		return getCollectionAsync(collection, null, null, null, null, null, null, null, null, null, true, null);
+	}
+
+	public Future<WeaveBasicObject[]> getCollectionAsync(final String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, final boolean decrypt, FutureCallback<WeaveBasicObject[]> callback) {
+		final HttpRequestFuture<WeaveBasicObject[]> future = new HttpRequestFuture<WeaveBasicObject[]>(callback);
+
+		future.setPending(storageClient.getCollectionAsync(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, new ChainedCallback<WeaveBasicObject[]>(future) {
+			public void completed(final WeaveBasicObject[] colWbo) {
+				if ( !decrypt ) {
+					future.completed(colWbo);
+					return;
+				}
+				runCrypto(future, new CryptoTask() {
+					public void run() throws Exception {
+						weaveClient.decryptWeaveBasicObjects(colWbo, collection, false);
+						future.completed(colWbo);
+					}
+				});
+			}
+		}));
+
+		return future;
+	}
+
+	public Future<Double> putAsync(String collection, String id, WeaveBasicObject wbo) {
+		return putAsync(collection, id, wbo, true, null);
+	}
+
+	public Future<Double> putAsync(final String collection, final String id, final WeaveBasicObject wbo, boolean encrypt, FutureCallback<Double> callback) {
+		final HttpRequestFuture<Double> future = new HttpRequestFuture<Double>(callback);
+
+		if ( !encrypt ) {
+			future.setPending(storageClient.putAsync(collection, id, wbo, new ChainedCallback<Double>(future)));
+			return future;
+		}
+
+		runCrypto(future, new CryptoTask() {
+			public void run() throws Exception {
+				WeaveBasicObject encWbo = weaveClient.encryptWeaveBasicObject(wbo, collection);
+				future.setPending(storageClient.putAsync(collection, id, encWbo, new ChainedCallback<Double>(future)));
+			}
+		});
+
+		return future;
+	}
+
+	public Future<WeavePostResult> postCollectionAsync(final String collection, final WeaveBasicObject[] wbos, boolean encrypt, final boolean atomic, FutureCallback<WeavePostResult> callback) {
+		final HttpRequestFuture<WeavePostResult> future = new HttpRequestFuture<WeavePostResult>(callback);
+
+		if ( !encrypt ) {
+			future.setPending(storageClient.postCollectionAsync(collection, wbos, atomic, new ChainedCallback<WeavePostResult>(future)));
+			return future;
+		}
+
+		runCrypto(future, new CryptoTask() {
+			public void run() throws Exception {
+				WeaveBasicObject[] encWbos = weaveClient.encryptWeaveBasicObjects(wbos, collection);
+				future.setPending(storageClient.postCollectionAsync(collection, encWbos, atomic, new ChainedCallback<WeavePostResult>(future)));
+			}
+		});
+
+		return future;
+	}
+
+	public Future<Double> deleteAsync(String collection, String id, FutureCallback<Double> callback) {
+		HttpRequestFuture<Double> future = new HttpRequestFuture<Double>(callback);
+
+		future.setPending(storageClient.deleteAsync(collection, id, new ChainedCallback<Double>(future)));
+
+		return future;
+	}
+
+	/**
+	 * ChainedCallback
+	 *
+	 * Pass result of storage request on to future, override completed() to process result first
+	 */
+	private static class ChainedCallback<T> implements FutureCallback<T> {
+		final HttpRequestFuture<T> future;
+
+		ChainedCallback(HttpRequestFuture<T> future) {
+			this.future = future;
+		}
+
+		public void completed(T result) {
+			future.completed(result);
+		}
+
+		public void failed(Exception e) {
+			future.failed(e);
+		}
+
+		public void cancelled() {
+			future.cancel(true);
+		}
+	}
+
+	private interface CryptoTask {
+		void run() throws Exception;
+	}
+
+	/**
+	 * runCrypto()
+	 *
+	 * Run task on crypto executor unless future has been cancelled. Any exception fails the future.
+	 */
+	private void runCrypto(final HttpRequestFuture<?> future, final CryptoTask task) {
+		try {
+			cryptoExecutor.execute(new Runnable() {
+				public void run() {
+					if ( future.isCancelled() ) {
+						return;
+					}
+					try {
+						task.run();
+					} catch (Exception e) {
+						future.failed(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.failed(e);
+		}
+	}
+}
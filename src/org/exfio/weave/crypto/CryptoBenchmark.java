@@ -0,0 +1,348 @@
+package org.exfio.weave.crypto;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONObject;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.WeaveBasicObject;
+import org.exfio.weave.util.Log;
+
+/**
+ * CryptoBenchmark
+ *
+ * Measure payload encryption and decryption using randomly generated keys and records
+ *
+ * cipher:   per record cost of encrypt and decrypt with per thread cipher context reused across
+ *           calls versus rebuilt for every record
+ * parallel: decryption throughput sequentially on the calling thread and in parallel on fork-join
+ *           pools of increasing parallelism
+ * stream:   per record cost of buffered versus streamed encrypt and decrypt, after verifying that
+ *           streamed output round-trips through the buffered methods and vice versa
+ */
+public class CryptoBenchmark {
+
+	public static final int DEFAULT_RECORDS      = 20000;
+	public static final int DEFAULT_PAYLOAD_SIZE = 512;
+	public static final int DEFAULT_ITERATIONS   = 3;
+	public static final String DEFAULT_BENCHMARK = "all";
+
+	public static void printUsage(Options options) {
+		System.out.println();
+		HelpFormatter formatter = new HelpFormatter();
+		formatter.printHelp( "cryptobenchmark", options );
+	}
+
+	public static void main( String[] args ) {
+
+		int records     = DEFAULT_RECORDS;
+		int payloadSize = DEFAULT_PAYLOAD_SIZE;
+		int iterations  = DEFAULT_ITERATIONS;
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		String benchmark = DEFAULT_BENCHMARK;
+
+		// Parse commandline arguments
+		Options options = new Options();
+
+		options.addOption("h", "help", false, "print this message");
+		options.addOption("n", "records", true, String.format("number of records. Defaults to %d", DEFAULT_RECORDS));
+		options.addOption("s", "payload-size", true, String.format("cleartext payload size in bytes. Defaults to %d", DEFAULT_PAYLOAD_SIZE));
+		options.addOption("i", "iterations", true, String.format("timed iterations per run, after one warm up iteration. Defaults to %d", DEFAULT_ITERATIONS));
+		options.addOption("p", "parallelism", true, "maximum parallelism. Defaults to number of cores");
+		options.addOption("b", "benchmark", true, String.format("benchmark to run, one of cipher, parallel, stream or all. Defaults to %s", DEFAULT_BENCHMARK));
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse( options, args );
+			if ( cmd.hasOption('n') ) records     = Integer.parseInt(cmd.getOptionValue('n'));
+			if ( cmd.hasOption('s') ) payloadSize = Integer.parseInt(cmd.getOptionValue('s'));
+			if ( cmd.hasOption('i') ) iterations  = Integer.parseInt(cmd.getOptionValue('i'));
+			if ( cmd.hasOption('p') ) parallelism = Integer.parseInt(cmd.getOptionValue('p'));
+			if ( cmd.hasOption('b') ) benchmark   = cmd.getOptionValue('b');
+		} catch( ParseException exp ) {
+			System.err.println( "Parsing failed: " + exp.getMessage() );
+			System.exit(1);
+		} catch( NumberFormatException exp ) {
+			System.err.println( "Parsing failed: " + exp.getMessage() );
+			System.exit(1);
+		}
+
+		if ( cmd.hasOption('h') ) {
+			// help
+			printUsage(options);
+			System.exit(0);
+		}
+
+		Log.init("warn");
+
+		if ( !benchmark.matches("cipher|parallel|stream|all") ) {
+			System.err.println(String.format("Unknown benchmark '%s'", benchmark));
+			printUsage(options);
+			System.exit(1);
+		}
+
+		try {
+			if ( benchmark.matches("cipher|all") ) {
+				runCipherBenchmark(records, payloadSize, iterations);
+			}
+			if ( benchmark.matches("parallel|all") ) {
+				runDecryptBenchmark(records, payloadSize, iterations, parallelism);
+			}
+			if ( benchmark.matches("stream|all") ) {
+				runStreamBenchmark(records, payloadSize, iterations);
+			}
+		} catch (WeaveException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public static void runCipherBenchmark(int records, int payloadSize, int iterations) throws WeaveException {
+		WeaveKeyPair keyPair = generateKeyPair();
+		String[] cleartext   = generateCleartext(records, payloadSize);
+		String[] encrypted   = new String[records];
+
+		PayloadCipher cipher = new PayloadCipher();
+
+		System.out.println(String.format("Encrypting and decrypting %d records of %d bytes", records, payloadSize));
+		System.out.println(String.format("%-12s %12s %12s %8s", "mode", "encrypt us", "decrypt us", "speedup"));
+
+		double[] uncached = new double[2];
+		double[] cached   = new double[2];
+
+		for (int i = 0; i <= iterations; i++) {
+			boolean warmup = ( i == 0 );
+
+			//Cipher context discarded before every record
+			long start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				PayloadCipher.resetContext();
+				encrypted[j] = cipher.encrypt(cleartext[j], keyPair);
+			}
+			long encryptElapsed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				PayloadCipher.resetContext();
+				cipher.decrypt(encrypted[j], keyPair);
+			}
+			long decryptElapsed = System.nanoTime() - start;
+
+			if ( !warmup ) {
+				uncached[0] += encryptElapsed;
+				uncached[1] += decryptElapsed;
+			}
+
+			//Cipher context reused across records
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				encrypted[j] = cipher.encrypt(cleartext[j], keyPair);
+			}
+			encryptElapsed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				cipher.decrypt(encrypted[j], keyPair);
+			}
+			decryptElapsed = System.nanoTime() - start;
+
+			if ( !warmup ) {
+				cached[0] += encryptElapsed;
+				cached[1] += decryptElapsed;
+			}
+		}
+
+		//Mean time per record in microseconds
+		double divisor = (double)iterations * records * 1000;
+		System.out.println(String.format("%-12s %12.2f %12.2f %7.2fx", "uncached", uncached[0] / divisor, uncached[1] / divisor, 1.0));
+		System.out.println(String.format("%-12s %12.2f %12.2f %7.2fx", "cached", cached[0] / divisor, cached[1] / divisor, (uncached[0] + uncached[1]) / (cached[0] + cached[1])));
+		System.out.println();
+	}
+
+	public static void runDecryptBenchmark(int records, int payloadSize, int iterations, int maxParallelism) throws WeaveException {
+		WeaveKeyPair keyPair = generateKeyPair();
+		String[] cleartext   = generateCleartext(records, payloadSize);
+
+		WeaveSyncV5Crypto crypto = new WeaveSyncV5Crypto();
+		crypto.init(null, keyPair);
+
+		PayloadCipher cipher = new PayloadCipher();
+
+		//Encrypt records
+		WeaveBasicObject[] encrypted = new WeaveBasicObject[records];
+		for (int i = 0; i < records; i++) {
+			encrypted[i] = new WeaveBasicObject(String.format("record%d", i), null, null, null, cipher.encrypt(cleartext[i], keyPair));
+		}
+
+		System.out.println(String.format("Decrypting %d records of %d bytes, %d cores", records, payloadSize, Runtime.getRuntime().availableProcessors()));
+		System.out.println(String.format("%-12s %12s %12s %8s", "mode", "ms", "records/s", "speedup"));
+
+		//Sequential baseline
+		double baseline = timeDecrypt(crypto, encrypted, null, iterations);
+		printResult("sequential", records, baseline, baseline);
+
+		//Parallel on pools of increasing parallelism
+		List<Integer> levels = new ArrayList<Integer>();
+		for (int p = 1; p < maxParallelism; p *= 2) {
+			levels.add(p);
+		}
+		levels.add(maxParallelism);
+
+		for (int p: levels) {
+			ForkJoinPool pool = new ForkJoinPool(p);
+			try {
+				double elapsed = timeDecrypt(crypto, encrypted, pool, iterations);
+				printResult(String.format("parallel-%d", p), records, elapsed, baseline);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	public static void runStreamBenchmark(int records, int payloadSize, int iterations) throws WeaveException {
+		WeaveKeyPair keyPair = generateKeyPair();
+		String[] cleartext   = generateCleartext(records, payloadSize);
+		String[] encrypted   = new String[records];
+
+		PayloadCipher cipher = new PayloadCipher();
+
+		//Multi-byte characters spanning several stream buffers
+		String multibyte = StringUtils.repeat("\u00e9\u4e2d\ud83d\ude00x", 3 * PayloadCipher.STREAM_BUFFER_SIZE / 7);
+		verifyStreamRoundTrip(cipher, multibyte, keyPair);
+		verifyStreamRoundTrip(cipher, "", keyPair);
+		for (int j = 0; j < records; j++) {
+			verifyStreamRoundTrip(cipher, cleartext[j], keyPair);
+		}
+
+		System.out.println(String.format("Streamed round trip verified, encrypting and decrypting %d records of %d bytes", records, payloadSize));
+		System.out.println(String.format("%-12s %12s %12s %8s", "mode", "encrypt us", "decrypt us", "speedup"));
+
+		double[] buffered = new double[2];
+		double[] streamed = new double[2];
+
+		for (int i = 0; i <= iterations; i++) {
+			boolean warmup = ( i == 0 );
+
+			long start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				encrypted[j] = cipher.encrypt(cleartext[j], keyPair);
+			}
+			long encryptElapsed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				cipher.decrypt(encrypted[j], keyPair);
+			}
+			long decryptElapsed = System.nanoTime() - start;
+
+			if ( !warmup ) {
+				buffered[0] += encryptElapsed;
+				buffered[1] += decryptElapsed;
+			}
+
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				encrypted[j] = cipher.encryptStreamed(cleartext[j], keyPair);
+			}
+			encryptElapsed = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int j = 0; j < records; j++) {
+				cipher.decryptStreamed(EncryptedPayload.parse(encrypted[j]), keyPair);
+			}
+			decryptElapsed = System.nanoTime() - start;
+
+			if ( !warmup ) {
+				streamed[0] += encryptElapsed;
+				streamed[1] += decryptElapsed;
+			}
+		}
+
+		//Mean time per record in microseconds
+		double divisor = (double)iterations * records * 1000;
+		System.out.println(String.format("%-12s %12.2f %12.2f %7.2fx", "buffered", buffered[0] / divisor, buffered[1] / divisor, 1.0));
+		System.out.println(String.format("%-12s %12.2f %12.2f %7.2fx", "streamed", streamed[0] / divisor, streamed[1] / divisor, (buffered[0] + buffered[1]) / (streamed[0] + streamed[1])));
+		System.out.println();
+	}
+
+	/**
+	 * verifyStreamRoundTrip()
+	 *
+	 * Streamed ciphertext must decrypt with String decrypt() and String ciphertext must decrypt when streamed
+	 */
+	private static void verifyStreamRoundTrip(PayloadCipher cipher, String cleartext, WeaveKeyPair keyPair) throws WeaveException {
+		if ( !cleartext.equals(cipher.decrypt(cipher.encryptStreamed(cleartext, keyPair), keyPair)) ) {
+			throw new WeaveException(String.format("Streamed encrypt of %d chars did not round trip", cleartext.length()));
+		}
+		if ( !cleartext.equals(cipher.decryptStreamed(EncryptedPayload.parse(cipher.encrypt(cleartext, keyPair)), keyPair)) ) {
+			throw new WeaveException(String.format("Streamed decrypt of %d chars did not round trip", cleartext.length()));
+		}
+	}
+
+	private static WeaveKeyPair generateKeyPair() {
+		SecureRandom rnd = new SecureRandom();
+
+		WeaveKeyPair keyPair = new WeaveKeyPair();
+		keyPair.cryptKey = new byte[32];
+		keyPair.hmacKey  = new byte[32];
+		rnd.nextBytes(keyPair.cryptKey);
+		rnd.nextBytes(keyPair.hmacKey);
+
+		return keyPair;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String[] generateCleartext(int records, int payloadSize) {
+		String[] cleartext = new String[records];
+		for (int i = 0; i < records; i++) {
+			JSONObject record = new JSONObject();
+			record.put("id", String.format("record%d", i));
+			record.put("data", StringUtils.repeat('x', payloadSize));
+			cleartext[i] = record.toJSONString();
+		}
+		return cleartext;
+	}
+
+	/**
+	 * timeDecrypt()
+	 *
+	 * @return mean elapsed time in ms of timed iterations
+	 */
+	private static double timeDecrypt(WeaveSyncV5Crypto crypto, WeaveBasicObject[] encrypted, ForkJoinPool pool, int iterations) throws WeaveException {
+		long total = 0;
+		for (int i = 0; i <= iterations; i++) {
+			WeaveBasicObject[] wbos = encrypted.clone();
+
+			long start = System.nanoTime();
+			if ( pool == null ) {
+				for (int j = 0; j < wbos.length; j++) {
+					wbos[j] = crypto.decryptWeaveBasicObject(wbos[j], (String)null);
+				}
+			} else {
+				crypto.decryptWeaveBasicObjects(wbos, null, pool);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			//First iteration is warm up
+			if ( i > 0 ) {
+				total += elapsed;
+			}
+		}
+		return total / (double)iterations / 1000000;
+	}
+
+	private static void printResult(String mode, int records, double elapsed, double baseline) {
+		System.out.println(String.format("%-12s %12.1f %12.0f %7.2fx", mode, elapsed, records / (elapsed / 1000), baseline / elapsed));
+	}
+}
@@ -0,0 +1,100 @@
+package org.exfio.weave.crypto;
+
+import lombok.Getter;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.util.Base64;
+
+/**
+ * EncryptedPayload
+ *
+ * Typed envelope of an encrypted payload, i.e. ciphertext, IV and HMAC. Build from an already parsed
+ * JSONObject where available, e.g. WeaveBasicObject.getPayloadAsJSONObject(), so that the payload JSON
+ * is only parsed once for both the encrypted check and decryption.
+ */
+@Getter
+public class EncryptedPayload {
+
+	public static final String KEY_CIPHERTEXT = "ciphertext";
+	public static final String KEY_IV         = "IV";
+	public static final String KEY_HMAC       = "hmac";
+
+	//Base64 encoded as HMAC is computed over encoded ciphertext
+	private String ciphertext;
+	private byte[] iv;
+
+	//Hex encoded
+	private String hmac;
+
+	public EncryptedPayload(String ciphertext, byte[] iv, String hmac) {
+		this.ciphertext = ciphertext;
+		this.iv         = iv;
+		this.hmac       = hmac;
+	}
+
+	public byte[] getCipherBytes() {
+		return Base64.decodeBase64(ciphertext);
+	}
+
+	public static boolean isEncrypted(JSONObject jsonPayload) {
+		return (
+			jsonPayload.get(KEY_CIPHERTEXT) instanceof String
+			&&
+			jsonPayload.get(KEY_IV) instanceof String
+			&&
+			jsonPayload.get(KEY_HMAC) instanceof String
+		);
+	}
+
+	/**
+	 * fromJSONObject()
+	 *
+	 * @return envelope or null if payload is not encrypted
+	 */
+	public static EncryptedPayload fromJSONObject(JSONObject jsonPayload) {
+		if ( !isEncrypted(jsonPayload) ) {
+			return null;
+		}
+		return new EncryptedPayload(
+			(String)jsonPayload.get(KEY_CIPHERTEXT),
+			Base64.decodeBase64((String)jsonPayload.get(KEY_IV)),
+			(String)jsonPayload.get(KEY_HMAC)
+		);
+	}
+
+	public static EncryptedPayload parse(String payload) throws WeaveException {
+		Object jsonTmp = null;
+		try {
+			JSONParser parser = new JSONParser();
+			jsonTmp = parser.parse(payload);
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+
+		EncryptedPayload encrypted = null;
+		if ( jsonTmp instanceof JSONObject ) {
+			encrypted = fromJSONObject((JSONObject)jsonTmp);
+		}
+		if ( encrypted == null ) {
+			throw new WeaveException("Payload not encrypted");
+		}
+		return encrypted;
+	}
+
+	@SuppressWarnings("unchecked")
+	public JSONObject toJSONObject() {
+		JSONObject encryptObject = new JSONObject();
+		encryptObject.put(KEY_CIPHERTEXT, ciphertext);
+		encryptObject.put(KEY_IV, Base64.encodeBase64String(iv));
+		encryptObject.put(KEY_HMAC, hmac);
+		return encryptObject;
+	}
+
+	public String toJSONString() {
+		return toJSONObject().toJSONString();
+	}
+}
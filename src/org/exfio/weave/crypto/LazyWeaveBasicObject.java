@@ -0,0 +1,114 @@
+package org.exfio.weave.crypto;
+
+import org.apache.commons.lang3.ObjectUtils;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.storage.WeaveBasicObject;
+
+/**
+ * LazyWeaveBasicObject
+ *
+ * WBO which keeps the encrypted payload and only decrypts it when the payload is first read. The
+ * cleartext is memoised, as is its JSON representation. Metadata, i.e. id, modified, sortindex and ttl,
+ * is available without decrypting.
+ *
+ * getPayload() and getPayloadAsJSONObject() cannot throw WeaveException, hence decryption failures
+ * are rethrown as PayloadDecryptionException. Call decrypt() first to handle them as WeaveException.
+ */
+public class LazyWeaveBasicObject extends WeaveBasicObject {
+
+	private WeaveBasicObject encrypted;
+	private WeaveSyncV5Crypto crypto;
+	private WeaveKeyPair keyPair;
+
+	LazyWeaveBasicObject(WeaveBasicObject encrypted, WeaveSyncV5Crypto crypto, WeaveKeyPair keyPair) {
+		super(encrypted.getId(), encrypted.getModified(), encrypted.getSortindex(), encrypted.getTtl(), null);
+		this.encrypted = encrypted;
+		this.crypto    = crypto;
+		this.keyPair   = keyPair;
+	}
+
+	public synchronized boolean isDecrypted() {
+		return ( encrypted == null );
+	}
+
+	/**
+	 * decrypt()
+	 *
+	 * Decrypt payload if not already decrypted
+	 */
+	public synchronized void decrypt() throws WeaveException {
+		if ( encrypted == null ) {
+			return;
+		}
+		this.payload     = crypto.decryptWeaveBasicObject(encrypted, keyPair).getPayload();
+		this.jsonPayload = null;
+
+		//Release ciphertext and key
+		this.encrypted = null;
+		this.crypto    = null;
+		this.keyPair   = null;
+	}
+
+	@Override
+	public synchronized String getPayload() {
+		decryptUnchecked();
+		return super.getPayload();
+	}
+
+	@Override
+	public synchronized void setPayload(String payload) {
+		//Cleartext supersedes ciphertext
+		this.encrypted   = null;
+		this.crypto      = null;
+		this.keyPair     = null;
+		this.jsonPayload = null;
+		super.setPayload(payload);
+	}
+
+	@Override
+	public synchronized JSONObject getPayloadAsJSONObject() throws ParseException {
+		decryptUnchecked();
+		return super.getPayloadAsJSONObject();
+	}
+
+	/*
+	 * Lombok generated equals(), hashCode() and toString() read the payload, hence would decrypt it.
+	 * Lazy WBOs are identified by id and modified time instead and only equal other lazy WBOs.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if ( o == this ) {
+			return true;
+		}
+		if ( !(o instanceof LazyWeaveBasicObject) ) {
+			return false;
+		}
+		LazyWeaveBasicObject other = (LazyWeaveBasicObject)o;
+		return ObjectUtils.equals(id, other.id) && ObjectUtils.equals(modified, other.modified);
+	}
+
+	protected boolean canEqual(Object other) {
+		return ( other instanceof LazyWeaveBasicObject );
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * ObjectUtils.hashCode(id) + ObjectUtils.hashCode(modified);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LazyWeaveBasicObject(id=%s, modified=%s, decrypted=%s)", id, modified, isDecrypted());
+	}
+
+	private void decryptUnchecked() {
+		try {
+			decrypt();
+		} catch (WeaveException e) {
+			throw new PayloadDecryptionException(e);
+		}
+	}
+}
@@ -1,21 +1,27 @@
 package org.exfio.weave.crypto;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import org.apache.commons.codec.binary.Base64OutputStream;
 
 import org.exfio.weave.Constants;
 import org.exfio.weave.WeaveException;
@@ -24,48 +30,58 @@ import org.exfio.weave.util.Hex;
 import org.exfio.weave.util.Log;
 
 public class PayloadCipher {
-	
+
+	//Chunk size for HMAC of ciphertext and for streaming encrypt and decrypt
+	public static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+	//Payloads with more ciphertext than this are decrypted and encrypted via the streaming methods
+	public static final int STREAM_THRESHOLD = 64 * 1024;
+
+	//Cipher and Mac instances are not thread safe hence they are cached per thread
+	private static final ThreadLocal<CipherContext> cipherContext = new ThreadLocal<CipherContext>() {
+		@Override
+		protected CipherContext initialValue() {
+			return new CipherContext();
+		}
+	};
+
+	/**
+	 * resetContext()
+	 *
+	 * Discard cipher context for current thread, i.e. next call will look up providers and build key specs again
+	 */
+	static void resetContext() {
+		cipherContext.remove();
+	}
+
 	public String decrypt(String payload, WeaveKeyPair keyPair) throws WeaveException {
+		return decrypt(EncryptedPayload.parse(payload), keyPair);
+	}
+
+	public String decrypt(EncryptedPayload payload, WeaveKeyPair keyPair) throws WeaveException {
 		
 		if (keyPair == null) {
 			throw new AssertionError("keyPair is a required parameter");
 		}
 		
-		String cleartext         = null;
-		JSONObject encryptObject = null;
-
-		// Parse JSONUtils encoded payload
-		try {
-			JSONParser parser = new JSONParser();			
-			encryptObject = (JSONObject)parser.parse(payload);  
-		} catch (ParseException e) {
-			throw new WeaveException(e);
-		}
+		String cleartext   = null;
 
 		// An encrypted payload has three relevant fields
-		String ciphertext  = (String)encryptObject.get("ciphertext");
-		byte[] cipherbytes = Base64.decodeBase64(ciphertext);
-		byte[] iv          = Base64.decodeBase64((String)encryptObject.get("IV"));
-		String cipher_hmac = (String)encryptObject.get("hmac");
+		String ciphertext  = payload.getCiphertext();
+		byte[] cipherbytes = payload.getCipherBytes();
+		byte[] iv          = payload.getIv();
+		String cipher_hmac = payload.getHmac();
 
-		Log.getInstance().debug( String.format("payload: %s, crypt key:  %s, crypt hmac: %s", payload, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+		if ( Log.getInstance().isDebugEnabled() ) {
+			Log.getInstance().debug( String.format("ciphertext: %s, crypt key:  %s, crypt hmac: %s", ciphertext, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+		}
+
+		CipherContext context = cipherContext.get();
 
 		// 1. Validate hmac of ciphertext
 		// Note: HMAC verification is done against base64 encoded ciphertext
-		String local_hmac = null;
-
-		try {
-			Mac hmacSHA256 = Mac.getInstance("HmacSHA256");
-			hmacSHA256.init(new SecretKeySpec(keyPair.hmacKey, "HmacSHA256"));
-			local_hmac = Hex.encodeHexString(hmacSHA256.doFinal(ciphertext.getBytes(Constants.ASCII)));
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
-		} catch (InvalidKeyException e) {
-			throw new WeaveException(e);
-		}
-
-		if ( !local_hmac.equals(cipher_hmac) ) {
-			Log.getInstance().warn(String.format("cipher hmac: %s, local hmac: %s", cipher_hmac, local_hmac));
+		if ( !context.verifyHmac(keyPair, ciphertext, cipher_hmac) ) {
+			Log.getInstance().warn(String.format("cipher hmac: %s, local hmac: %s", cipher_hmac, Hex.encodeHexString(context.localHmac)));
 			throw new WeaveException("HMAC verification failed!");
 		}
 
@@ -73,22 +89,20 @@ public class PayloadCipher {
 		// Note: this is the same as this operation at the openssl command line:
 		// openssl enc -d -in data -aes-256-cbc -K `cat unwrapped_symkey.16` -iv `cat iv.16`
 		try {
-			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-			cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyPair.cryptKey, "AES"), new IvParameterSpec(iv));
+			Cipher cipher = context.getCipher();
+			cipher.init(Cipher.DECRYPT_MODE, context.getCryptKeySpec(keyPair), new IvParameterSpec(iv));
 
 			byte[] clearbytes = cipher.doFinal(cipherbytes);
 			cleartext = new String(clearbytes, Constants.UTF8);
 
-			Log.getInstance().debug(String.format("cleartext: %s", cleartext));
+			if ( Log.getInstance().isDebugEnabled() ) {
+				Log.getInstance().debug(String.format("cleartext: %s", cleartext));
+			}
 
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
 		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (IllegalBlockSizeException e) {
 			throw new WeaveException(e);
-		} catch (NoSuchPaddingException e) {
-			throw new WeaveException(e);
 		} catch (BadPaddingException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
@@ -106,13 +120,12 @@ public class PayloadCipher {
 	 *
 	 * Given a plaintext object, encrypt it and return the ciphertext value.
 	 */
-	@SuppressWarnings("unchecked")
 	public String encrypt(String plaintext, WeaveKeyPair keyPair) throws WeaveException {		
-		Log.getInstance().debug( "encrypt()");
-		Log.getInstance().debug( "plaintext:\n" + plaintext);
-	        
-
-        Log.getInstance().debug( String.format("payload: %s, crypt key:  %s, crypt hmac: %s", plaintext, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+		if ( Log.getInstance().isDebugEnabled() ) {
+			Log.getInstance().debug( "encrypt()");
+			Log.getInstance().debug( "plaintext:\n" + plaintext);
+			Log.getInstance().debug( String.format("payload: %s, crypt key:  %s, crypt hmac: %s", plaintext, Hex.encodeHexString(keyPair.cryptKey), Hex.encodeHexString(keyPair.hmacKey)));
+		}
 		        
 		// Encryption primitives
         String ciphertext  = null;
@@ -120,27 +133,24 @@ public class PayloadCipher {
         byte[] iv          = null;
         byte[] hmac        = null;
         
+        CipherContext context = cipherContext.get();
+
         // 1. Encrypt plaintext
         // Note: this is the same as this operation at the openssl command line:
         // openssl enc -d -in data -aes-256-cbc -K `cat unwrapped_symkey.16` -iv `cat iv.16`
 		
         try {
-            SecureRandom rnd = new SecureRandom();
-            IvParameterSpec ivspec = new IvParameterSpec(rnd.generateSeed(16));
+            IvParameterSpec ivspec = new IvParameterSpec(RandomSource.getDefault().nextBytes(16));
             
-        	Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        	cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyPair.cryptKey, "AES"), ivspec);
-        	cipherbytes = cipher.doFinal(plaintext.getBytes(Constants.ASCII));
+        	Cipher cipher = context.getCipher();
+        	cipher.init(Cipher.ENCRYPT_MODE, context.getCryptKeySpec(keyPair), ivspec);
+        	cipherbytes = cipher.doFinal(plaintext.getBytes(Constants.UTF8));
         	iv          = cipher.getIV();
         	
-		} catch (NoSuchAlgorithmException e) {
-			throw new WeaveException(e);
 		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (IllegalBlockSizeException e) {
 			throw new WeaveException(e);
-		} catch (NoSuchPaddingException e) {
-			throw new WeaveException(e);
 		} catch (BadPaddingException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
@@ -150,27 +160,387 @@ public class PayloadCipher {
         // 2. Create hmac of ciphertext
         // Note: HMAC is done against base64 encoded ciphertext
     	ciphertext = Base64.encodeBase64String(cipherbytes);
-    	
-    	try {
-            Mac hmacSHA256 = Mac.getInstance("HmacSHA256");
-            hmacSHA256.init(new SecretKeySpec(keyPair.hmacKey, "HmacSHA256"));
-            hmac = hmacSHA256.doFinal(ciphertext.getBytes(Constants.ASCII));
-		} catch (NoSuchAlgorithmException e) {
+    	hmac       = context.getMac(keyPair).doFinal(ciphertext.getBytes(Constants.ASCII));
+
+		Log.getInstance().info( "Successfully encrypted v5 data record");
+
+        // Construct JSONUtils encoded payload
+		return new EncryptedPayload(ciphertext, iv, Hex.encodeHexString(hmac)).toJSONString();
+	}
+
+	/**
+	 * decrypt()
+	 *
+	 * Verify HMAC then stream UTF-8 cleartext to output. Ciphertext is base64 decoded and decrypted
+	 * incrementally in chunks of STREAM_BUFFER_SIZE, hence neither the full ciphertext bytes nor the
+	 * cleartext are held in memory. Nothing is written unless HMAC verification succeeds.
+	 */
+	public void decrypt(EncryptedPayload payload, OutputStream cleartext, WeaveKeyPair keyPair) throws WeaveException, IOException {
+
+		if (keyPair == null) {
+			throw new AssertionError("keyPair is a required parameter");
+		}
+
+		String ciphertext = payload.getCiphertext();
+		String cipher_hmac = payload.getHmac();
+
+		CipherContext context = cipherContext.get();
+
+		// 1. Validate hmac of ciphertext
+		if ( !context.verifyHmac(keyPair, ciphertext, cipher_hmac) ) {
+			Log.getInstance().warn(String.format("cipher hmac: %s, local hmac: %s", cipher_hmac, Hex.encodeHexString(context.localHmac)));
+			throw new WeaveException("HMAC verification failed!");
+		}
+
+		// 2. Decode and decrypt ciphertext
+		Cipher cipher = context.getCipher();
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, context.getCryptKeySpec(keyPair), new IvParameterSpec(payload.getIv()));
+		} catch (InvalidAlgorithmParameterException e) {
 			throw new WeaveException(e);
 		} catch (InvalidKeyException e) {
 			throw new WeaveException(e);
 		}
 
+		CipherUpdateOutputStream cipherStream = new CipherUpdateOutputStream(cipher, cleartext);
+		Base64OutputStream decoder = new Base64OutputStream(cipherStream, false);
+
+		byte[] chunk = new byte[STREAM_BUFFER_SIZE];
+		int textLength = ciphertext.length();
+		for (int offset = 0; offset < textLength; offset += chunk.length) {
+			int count = Math.min(chunk.length, textLength - offset);
+			copyAscii(ciphertext, offset, count, chunk);
+			decoder.write(chunk, 0, count);
+		}
+
+		//Flush decoder then finalise cipher
+		decoder.close();
+		cipherStream.doFinal();
+
+		Log.getInstance().info("Successfully decrypted v5 data record");
+	}
+
+	/**
+	 * encrypt()
+	 *
+	 * Stream plaintext, i.e. UTF-8 encoded bytes, to output as encrypted payload JSON. Plaintext is
+	 * encrypted, base64 encoded and HMACed incrementally in chunks of STREAM_BUFFER_SIZE. The hmac
+	 * field is written last as it isn't known until all ciphertext has been written.
+	 */
+	public void encrypt(InputStream plaintext, OutputStream payload, WeaveKeyPair keyPair) throws WeaveException, IOException {
+
+		CipherContext context = cipherContext.get();
+
+		Mac mac       = context.getMac(keyPair);
+		Cipher cipher = context.getCipher();
+		byte[] iv     = RandomSource.getDefault().nextBytes(16);
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, context.getCryptKeySpec(keyPair), new IvParameterSpec(iv));
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new WeaveException(e);
+		} catch (InvalidKeyException e) {
+			throw new WeaveException(e);
+		}
+
+		payload.write(String.format("{\"%s\":\"", EncryptedPayload.KEY_CIPHERTEXT).getBytes(Constants.ASCII));
+
+		// HMAC is computed over base64 encoded ciphertext as it is written
+		Base64OutputStream encoder = new Base64OutputStream(new MacOutputStream(mac, payload), true, 0, null);
+
+		byte[] inBuffer  = new byte[STREAM_BUFFER_SIZE];
+		byte[] outBuffer = new byte[STREAM_BUFFER_SIZE + 2 * cipher.getBlockSize()];
+		try {
+			int len = 0;
+			while ( (len = plaintext.read(inBuffer)) != -1 ) {
+				int count = cipher.update(inBuffer, 0, len, outBuffer, 0);
+				encoder.write(outBuffer, 0, count);
+			}
+			int count = cipher.doFinal(outBuffer, 0);
+			encoder.write(outBuffer, 0, count);
+		} catch (ShortBufferException e) {
+			throw new WeaveException(e);
+		} catch (IllegalBlockSizeException e) {
+			throw new WeaveException(e);
+		} catch (BadPaddingException e) {
+			throw new WeaveException(e);
+		}
+
+		//Flush remaining base64 output, underlying payload stream is left open
+		encoder.close();
+
+		payload.write(String.format("\",\"%s\":\"%s\",\"%s\":\"%s\"}",
+			EncryptedPayload.KEY_IV,
+			Base64.encodeBase64String(iv),
+			EncryptedPayload.KEY_HMAC,
+			Hex.encodeHexString(mac.doFinal())
+		).getBytes(Constants.ASCII));
+
 		Log.getInstance().info( "Successfully encrypted v5 data record");
+	}
 
-        // Construct JSONUtils encoded payload
-		JSONObject encryptObject = new JSONObject();
-		
-		encryptObject.put("ciphertext", ciphertext);
-		encryptObject.put("IV", Base64.encodeBase64String(iv));
-		encryptObject.put("hmac", Hex.encodeHexString(hmac));
-				
-		return encryptObject.toJSONString();
+	/**
+	 * decryptStreamed()
+	 *
+	 * Equivalent to decrypt(EncryptedPayload, WeaveKeyPair) but decrypts via the streaming method, i.e.
+	 * the decoded ciphertext bytes are never held in memory. Intended for payloads over STREAM_THRESHOLD.
+	 */
+	public String decryptStreamed(EncryptedPayload payload, WeaveKeyPair keyPair) throws WeaveException {
+		ByteArrayOutputStream cleartext = new ByteArrayOutputStream(payload.getCiphertext().length() * 3 / 4);
+		try {
+			decrypt(payload, cleartext, keyPair);
+			return cleartext.toString(Constants.UTF8.name());
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * encryptStreamed()
+	 *
+	 * Equivalent to encrypt(String, WeaveKeyPair) but encrypts via the streaming method, i.e. payload
+	 * JSON is written directly rather than via intermediate ciphertext bytes and base64 string.
+	 */
+	public String encryptStreamed(String plaintext, WeaveKeyPair keyPair) throws WeaveException {
+		byte[] clearbytes = plaintext.getBytes(Constants.UTF8);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(clearbytes.length * 4 / 3 + 256);
+		try {
+			encrypt(new ByteArrayInputStream(clearbytes), payload, keyPair);
+			return payload.toString(Constants.ASCII.name());
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	private static void copyAscii(String text, int offset, int count, byte[] out) {
+		for (int i = 0; i < count; i++) {
+			out[i] = (byte)text.charAt(offset + i);
+		}
+	}
+
+	/**
+	 * MacOutputStream
+	 *
+	 * Update Mac with bytes as they are written through to payload. Closing does not close payload.
+	 */
+	private static class MacOutputStream extends OutputStream {
+		private final Mac mac;
+		private final OutputStream out;
+
+		MacOutputStream(Mac mac, OutputStream out) {
+			this.mac = mac;
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			mac.update((byte)b);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			mac.update(b, off, len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	/**
+	 * CipherUpdateOutputStream
+	 *
+	 * Decrypt bytes as they are written into a reused buffer and write cleartext through. Unlike
+	 * CipherOutputStream padding errors are not swallowed, see doFinal(). Closing does not close cleartext.
+	 */
+	private static class CipherUpdateOutputStream extends OutputStream {
+		private final Cipher cipher;
+		private final OutputStream out;
+		private byte[] buffer;
+
+		CipherUpdateOutputStream(Cipher cipher, OutputStream out) {
+			this.cipher = cipher;
+			this.out    = out;
+			this.buffer = new byte[STREAM_BUFFER_SIZE + 2 * cipher.getBlockSize()];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int size = cipher.getOutputSize(len);
+			if ( buffer.length < size ) {
+				buffer = new byte[size];
+			}
+			try {
+				int count = cipher.update(b, off, len, buffer, 0);
+				out.write(buffer, 0, count);
+			} catch (ShortBufferException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void doFinal() throws WeaveException, IOException {
+			try {
+				int count = cipher.doFinal(buffer, 0);
+				out.write(buffer, 0, count);
+			} catch (ShortBufferException e) {
+				throw new WeaveException(e);
+			} catch (IllegalBlockSizeException e) {
+				throw new WeaveException(e);
+			} catch (BadPaddingException e) {
+				throw new WeaveException(e);
+			}
+		}
+	}
+
+	/**
+	 * CipherContext
+	 *
+	 * AES and HMAC instances for a single thread, along with key specs for each WeaveKeyPair in use.
+	 * Key pairs are weakly referenced so that discarded bulk keys do not accumulate.
+	 */
+	private static class CipherContext {
+		private Cipher aes             = null;
+		private Mac hmacSHA256         = null;
+		private KeySpecs macKeySpecs   = null;
+		private Map<WeaveKeyPair, KeySpecs> keySpecs = new WeakHashMap<WeaveKeyPair, KeySpecs>();
+
+		//Reused by verifyHmac()
+		private byte[] textBuffer      = new byte[STREAM_BUFFER_SIZE];
+		private byte[] localHmac       = new byte[0];
+		private byte[] remoteHmac      = new byte[0];
+
+		public Cipher getCipher() throws WeaveException {
+			if ( aes == null ) {
+				try {
+					aes = Cipher.getInstance("AES/CBC/PKCS5Padding");
+				} catch (NoSuchAlgorithmException e) {
+					throw new WeaveException(e);
+				} catch (NoSuchPaddingException e) {
+					throw new WeaveException(e);
+				}
+			}
+			return aes;
+		}
+
+		public SecretKeySpec getCryptKeySpec(WeaveKeyPair keyPair) {
+			return getKeySpecs(keyPair).cryptKeySpec;
+		}
+
+		/**
+		 * getMac()
+		 *
+		 * @return HmacSHA256 instance initialised with hmac key of keyPair. Mac is reset by doFinal() hence
+		 * it is only re-initialised when key changes.
+		 */
+		public Mac getMac(WeaveKeyPair keyPair) throws WeaveException {
+			KeySpecs specs = getKeySpecs(keyPair);
+
+			try {
+				if ( hmacSHA256 == null ) {
+					hmacSHA256 = Mac.getInstance("HmacSHA256");
+				}
+				if ( specs != macKeySpecs ) {
+					macKeySpecs = null;
+					hmacSHA256.init(specs.hmacKeySpec);
+					macKeySpecs = specs;
+				} else {
+					//Discard any partial input left by a failed call
+					hmacSHA256.reset();
+				}
+			} catch (NoSuchAlgorithmException e) {
+				throw new WeaveException(e);
+			} catch (InvalidKeyException e) {
+				throw new WeaveException(e);
+			}
+			return hmacSHA256;
+		}
+
+		/**
+		 * verifyHmac()
+		 *
+		 * Compare HMAC of base64 encoded ciphertext with hex encoded HMAC in constant time. Buffers are reused
+		 * across calls hence no intermediate Strings or byte arrays are allocated, regardless of payload size.
+		 */
+		public boolean verifyHmac(WeaveKeyPair keyPair, String ciphertext, String hmacHex) throws WeaveException {
+			Mac mac = getMac(keyPair);
+
+			int macLength = mac.getMacLength();
+			if ( localHmac.length != macLength ) {
+				localHmac  = new byte[macLength];
+				remoteHmac = new byte[macLength];
+			}
+
+			//Base64 is ASCII hence chars are copied directly, a chunk at a time
+			int textLength = ciphertext.length();
+			for (int offset = 0; offset < textLength; offset += textBuffer.length) {
+				int count = Math.min(textBuffer.length, textLength - offset);
+				copyAscii(ciphertext, offset, count, textBuffer);
+				mac.update(textBuffer, 0, count);
+			}
+
+			try {
+				mac.doFinal(localHmac, 0);
+			} catch (ShortBufferException e) {
+				throw new WeaveException(e);
+			}
+
+			if ( !decodeHex(hmacHex, remoteHmac) ) {
+				return false;
+			}
+			return MessageDigest.isEqual(localHmac, remoteHmac);
+		}
+
+		private static boolean decodeHex(String hex, byte[] out) {
+			if ( hex == null || hex.length() != out.length * 2 ) {
+				return false;
+			}
+			for (int i = 0; i < out.length; i++) {
+				int high = Character.digit(hex.charAt(2 * i), 16);
+				int low  = Character.digit(hex.charAt(2 * i + 1), 16);
+				if ( high < 0 || low < 0 ) {
+					return false;
+				}
+				out[i] = (byte)((high << 4) | low);
+			}
+			return true;
+		}
+
+		private KeySpecs getKeySpecs(WeaveKeyPair keyPair) {
+			KeySpecs specs = keySpecs.get(keyPair);
+
+			//Rebuild if key material has been replaced since specs were cached
+			if ( specs == null || specs.cryptKey != keyPair.cryptKey || specs.hmacKey != keyPair.hmacKey ) {
+				specs = new KeySpecs(keyPair);
+				keySpecs.put(keyPair, specs);
+			}
+			return specs;
+		}
+	}
+
+	private static class KeySpecs {
+		private final byte[] cryptKey;
+		private final byte[] hmacKey;
+		private final SecretKeySpec cryptKeySpec;
+		private final SecretKeySpec hmacKeySpec;
+
+		KeySpecs(WeaveKeyPair keyPair) {
+			this.cryptKey     = keyPair.cryptKey;
+			this.hmacKey      = keyPair.hmacKey;
+			this.cryptKeySpec = new SecretKeySpec(keyPair.cryptKey, "AES");
+			this.hmacKeySpec  = new SecretKeySpec(keyPair.hmacKey, "HmacSHA256");
+		}
 	}
-	
 }
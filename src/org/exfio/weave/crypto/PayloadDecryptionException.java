@@ -0,0 +1,21 @@
+package org.exfio.weave.crypto;
+
+import org.exfio.weave.WeaveException;
+
+/**
+ * PayloadDecryptionException
+ *
+ * Unchecked wrapper for WeaveException thrown when a LazyWeaveBasicObject payload is decrypted on read
+ */
+public class PayloadDecryptionException extends RuntimeException {
+	private static final long serialVersionUID = 6120432781457325092L;
+
+	public PayloadDecryptionException(WeaveException cause) {
+		super(cause.getMessage(), cause);
+	}
+
+	@Override
+	public synchronized WeaveException getCause() {
+		return (WeaveException)super.getCause();
+	}
+}
@@ -0,0 +1,140 @@
+package org.exfio.weave.crypto;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.util.Log;
+
+/**
+ * RandomSource
+ *
+ * Thread safe source of random bytes for IVs, IDs, salts and keys. Bytes are served from a buffer
+ * filled by SecureRandom.nextBytes(), which unlike generateSeed() does not block on the system entropy
+ * pool. Once half the buffer is consumed a spare buffer is filled by a background thread. If the spare
+ * is not ready when the buffer runs out it is refilled in place on the calling thread.
+ *
+ * Bytes are zeroed in the buffer as they are handed out.
+ */
+public class RandomSource {
+
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	private static RandomSource defaultSource = null;
+
+	private final SecureRandom rnd;
+	private final int bufferSize;
+	private final ExecutorService refiller;
+
+	private byte[] buffer;
+	private int position;
+	private byte[] spare      = null;
+	private boolean refilling = false;
+
+	public static synchronized RandomSource getDefault() {
+		if ( defaultSource == null ) {
+			defaultSource = new RandomSource();
+		}
+		return defaultSource;
+	}
+
+	public RandomSource() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public RandomSource(int bufferSize) {
+		this.rnd        = createSecureRandom();
+		this.bufferSize = bufferSize;
+		this.buffer     = new byte[bufferSize];
+		this.position   = 0;
+
+		BasicThreadFactory factory = new BasicThreadFactory.Builder()
+			.namingPattern("weaverandom-%d")
+			.daemon(true)
+			.build();
+		this.refiller = Executors.newSingleThreadExecutor(factory);
+
+		rnd.nextBytes(buffer);
+	}
+
+	private static SecureRandom createSecureRandom() {
+		//Prefer explicitly non-blocking implementation where available, i.e. Java 8+ on Unix
+		try {
+			return SecureRandom.getInstance("NativePRNGNonBlocking");
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	}
+
+	public byte[] nextBytes(int size) {
+		byte[] bytes = new byte[size];
+		nextBytes(bytes);
+		return bytes;
+	}
+
+	public void nextBytes(byte[] bytes) {
+
+		//Large requests bypass buffer
+		if ( bytes.length > bufferSize / 2 ) {
+			rnd.nextBytes(bytes);
+			return;
+		}
+
+		synchronized (this) {
+			int offset = 0;
+			while ( offset < bytes.length ) {
+				if ( position == buffer.length ) {
+					swapBuffer();
+				}
+				int count = Math.min(bytes.length - offset, buffer.length - position);
+				System.arraycopy(buffer, position, bytes, offset, count);
+				Arrays.fill(buffer, position, position + count, (byte)0);
+				position += count;
+				offset   += count;
+			}
+
+			if ( position >= buffer.length / 2 && spare == null && !refilling ) {
+				scheduleRefill();
+			}
+		}
+	}
+
+	public void shutdown() {
+		refiller.shutdown();
+	}
+
+	private void swapBuffer() {
+		if ( spare != null ) {
+			buffer = spare;
+			spare  = null;
+		} else {
+			Log.getInstance().debug("Random buffer exhausted before background refill, refilling in place");
+			rnd.nextBytes(buffer);
+		}
+		position = 0;
+	}
+
+	private void scheduleRefill() {
+		refilling = true;
+		try {
+			refiller.execute(new Runnable() {
+				public void run() {
+					byte[] fresh = new byte[bufferSize];
+					rnd.nextBytes(fresh);
+					synchronized (RandomSource.this) {
+						spare     = fresh;
+						refilling = false;
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			//Shut down, buffer will be refilled in place
+			refilling = false;
+		}
+	}
+}
@@ -10,10 +10,12 @@
  ******************************************************************************/
 package org.exfio.weave.crypto;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.json.simple.JSONObject;
 import org.json.simple.JSONArray;
@@ -38,12 +40,20 @@ public class WeaveSyncV5Crypto {
 	public static final String KEY_META_PATH         = "meta/global";
 	public static final String KEY_META_COLLECTION   = "meta";
 	public static final String KEY_META_ID           = "global";
+
+	//Maximum number of WBOs decrypted by a single fork-join task, hence collections of up to this
+	//many WBOs are decrypted on the calling thread rather than the fork-join pool
+	public static final int PARALLEL_DECRYPT_THRESHOLD = 32;
 	
 	private StorageVersion version = StorageVersion.v5;
 	
 	private StorageContext storageClient;
 	private WeaveKeyPair privateKey;
-	private Map<String, WeaveKeyPair> bulkKeys;
+	private volatile BulkKeys bulkKeys;
+	private final Object bulkKeysLock = new Object();
+
+	//PayloadCipher is stateless, cipher instances are cached per thread
+	private PayloadCipher cipher = new PayloadCipher();
 
 	public WeaveSyncV5Crypto() {
 		storageClient  = null;
@@ -88,7 +98,7 @@ public class WeaveSyncV5Crypto {
 		WeaveBasicObject wboCrypto = new WeaveBasicObject(KEY_CRYPTO_ID, null, null, null, cryptoObject.toJSONString());
 
 		//Encrypt payload with private keypair
-		wboCrypto = encryptWeaveBasicObject(wboCrypto, null);
+		wboCrypto = encryptWeaveBasicObject(wboCrypto, this.privateKey);
 
 		storageClient.put(KEY_CRYPTO_PATH, wboCrypto);		
 	}
@@ -129,10 +139,10 @@ public class WeaveSyncV5Crypto {
 	}
 	
 	private WeaveKeyPair generateWeaveKeyPair() {
-        SecureRandom rnd = new SecureRandom();
+        RandomSource rnd = RandomSource.getDefault();
         WeaveKeyPair keyPair = new WeaveKeyPair();
-        keyPair.cryptKey = rnd.generateSeed(32);
-        keyPair.hmacKey = rnd.generateSeed(32);
+        keyPair.cryptKey = rnd.nextBytes(32);
+        keyPair.hmacKey = rnd.nextBytes(32);
         return keyPair;
 	}
     
@@ -140,100 +150,277 @@ public class WeaveSyncV5Crypto {
       Given a bulk key label, pull the key down from the network,
       and decrypt it using my private key.  Then store the key
       into self storage for later decrypt operations."""
+      
+      Keys are cached until the modified time of the crypto collection
+      in info/collections changes, i.e. keys have been rotated.
 	 */
 	private WeaveKeyPair getBulkKeyPair(String collection) throws WeaveException {
 		Log.getInstance().debug("getBulkKeyPair()");
-		
-		if ( this.bulkKeys == null ) {
-			Log.getInstance().info( "Fetching bulk keys from server");
-
-            WeaveBasicObject res = null;
-            try {
-            	res = storageClient.get(KEY_CRYPTO_PATH);
-            } catch (NotFoundException e) {
-            	throw new WeaveException(KEY_CRYPTO_PATH + " not found " + e.getMessage());
-            }
-
-            // Recursively call decrypt to extract key data
-            String payload = this.decrypt(res.getPayload(), null);
-            
-            // Parse JSONUtils encoded payload
-            JSONParser parser = new JSONParser();
-            JSONObject keyData = null; 
-            		
-            try {
-            	keyData = (JSONObject)parser.parse(payload);  
-            } catch (ParseException e) {
-            	throw new WeaveException(e);
-            }
-
-    		this.bulkKeys   = new HashMap<String, WeaveKeyPair>();
-
-    		//Get default key pair
-    		JSONArray defaultKey = (JSONArray)keyData.get("default");
-    		
-        	WeaveKeyPair keyPair = new WeaveKeyPair();
-        	keyPair.cryptKey = Base64.decodeBase64((String)defaultKey.get(0));
-        	keyPair.hmacKey  = Base64.decodeBase64((String)defaultKey.get(1));
-            this.bulkKeys.put("default", keyPair);
-    		
-            //Get collection key pairs
-            JSONObject colKeys = (JSONObject)keyData.get("collections");
-            
-    	    Iterator<?> it = colKeys.entrySet().iterator();
-    	    while (it.hasNext()) {
-    	        Map.Entry<?, ?> pairs = (Map.Entry<?, ?>)it.next();
-            	JSONArray bulkKey = (JSONArray)pairs.getValue();
-            	
-            	WeaveKeyPair bulkKeyPair = new WeaveKeyPair();
-            	bulkKeyPair.cryptKey = Base64.decodeBase64((String)bulkKey.get(0));
-            	bulkKeyPair.hmacKey  = Base64.decodeBase64((String)bulkKey.get(1));
-                this.bulkKeys.put((String)pairs.getKey(), bulkKeyPair);
-            }
-            
-            Log.getInstance().info( String.format("Successfully decrypted bulk key for %s", collection));
+
+		BulkKeys keys = this.bulkKeys;
+
+		Double modified = null;
+		try {
+			modified = storageClient.getCollectionModified(KEY_CRYPTO_COLLECTION);
+		} catch (WeaveException e) {
+			if ( keys == null ) {
+				throw e;
+			}
+			Log.getInstance().warn(String.format("Couldn't revalidate bulk keys, using cached keys - %s", e.getMessage()));
+			modified = keys.modified;
 		}
 
-        if ( this.bulkKeys.containsKey(collection) )  {
-        	return this.bulkKeys.get(collection);
-        } else if ( this.bulkKeys.containsKey("default") ) {
+		if ( keys == null || !keys.isCurrent(modified) ) {
+			synchronized (bulkKeysLock) {
+				//Keys may have been refreshed by another thread
+				keys = this.bulkKeys;
+				if ( keys == null || !keys.isCurrent(modified) ) {
+					if ( keys != null ) {
+						Log.getInstance().info( "crypto collection modified, bulk keys may have been rotated");
+					}
+					keys = fetchBulkKeys(modified);
+					this.bulkKeys = keys;
+				}
+			}
+		}
+
+        if ( keys.keyPairs.containsKey(collection) )  {
+        	return keys.keyPairs.get(collection);
+        } else if ( keys.keyPairs.containsKey("default") ) {
         	Log.getInstance().info( String.format("No key found for %s, using default", collection));
-        	return this.bulkKeys.get("default");        	
+        	return keys.keyPairs.get("default");        	
         } else {
         	throw new WeaveException("No default key found");
         }
 	}
+
+	private BulkKeys fetchBulkKeys(Double modified) throws WeaveException {
+		Log.getInstance().info( "Fetching bulk keys from server");
+
+        WeaveBasicObject res = null;
+        try {
+        	res = storageClient.get(KEY_CRYPTO_PATH);
+        } catch (NotFoundException e) {
+        	throw new WeaveException(KEY_CRYPTO_PATH + " not found " + e.getMessage());
+        }
+
+        // Recursively call decrypt to extract key data
+        String payload = this.decrypt(res.getPayload(), null);
+        
+        // Parse JSONUtils encoded payload
+        JSONParser parser = new JSONParser();
+        JSONObject keyData = null; 
+        		
+        try {
+        	keyData = (JSONObject)parser.parse(payload);  
+        } catch (ParseException e) {
+        	throw new WeaveException(e);
+        }
+
+		Map<String, WeaveKeyPair> keyPairs = new HashMap<String, WeaveKeyPair>();
+
+		//Get default key pair
+		JSONArray defaultKey = (JSONArray)keyData.get("default");
+		
+    	WeaveKeyPair keyPair = new WeaveKeyPair();
+    	keyPair.cryptKey = Base64.decodeBase64((String)defaultKey.get(0));
+    	keyPair.hmacKey  = Base64.decodeBase64((String)defaultKey.get(1));
+        keyPairs.put("default", keyPair);
+		
+        //Get collection key pairs
+        JSONObject colKeys = (JSONObject)keyData.get("collections");
+        
+	    Iterator<?> it = colKeys.entrySet().iterator();
+	    while (it.hasNext()) {
+	        Map.Entry<?, ?> pairs = (Map.Entry<?, ?>)it.next();
+        	JSONArray bulkKey = (JSONArray)pairs.getValue();
+        	
+        	WeaveKeyPair bulkKeyPair = new WeaveKeyPair();
+        	bulkKeyPair.cryptKey = Base64.decodeBase64((String)bulkKey.get(0));
+        	bulkKeyPair.hmacKey  = Base64.decodeBase64((String)bulkKey.get(1));
+            keyPairs.put((String)pairs.getKey(), bulkKeyPair);
+        }
+        
+        Log.getInstance().info( "Successfully decrypted bulk keys");
+
+        //Prefer modified time of keys record, which is at least as recent as info/collections
+        Double keysModified = ( res.getModified() != null ? res.getModified() : modified );
+
+        return new BulkKeys(keysModified, keyPairs);
+	}
+
+	/**
+	 * BulkKeys
+	 * 
+	 * Immutable snapshot of bulk keys, published atomically so concurrent readers never see a partially
+	 * populated map
+	 */
+	private static class BulkKeys {
+		private final Double modified;
+		private final Map<String, WeaveKeyPair> keyPairs;
+
+		BulkKeys(Double modified, Map<String, WeaveKeyPair> keyPairs) {
+			this.modified = modified;
+			this.keyPairs = Collections.unmodifiableMap(keyPairs);
+		}
+
+		boolean isCurrent(Double crypto) {
+			//Missing modified time can't be validated, keep keys
+			if ( crypto == null || modified == null ) {
+				return true;
+			}
+			return crypto.doubleValue() <= modified.doubleValue();
+		}
+	}
 	
 	public WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
+		return decryptWeaveBasicObject(wbo, getKeyPair(collection));
+	}
+	
+	/**
+	 * decryptWeaveBasicObjects()
+	 * 
+	 * Decrypt WBOs in place on fork-join pool, i.e. order of WBOs is preserved
+	 */
+	public void decryptWeaveBasicObjects(WeaveBasicObject[] wbos, String collection, ForkJoinPool pool) throws WeaveException {
+		if ( wbos.length == 0 ) {
+			return;
+		}
+
+		//Resolve key on calling thread as bulk keys are fetched lazily
+		WeaveKeyPair keyPair = getKeyPair(collection);
+
 		try {
-			if ( !isEncrypted(wbo) ) {
-				throw new WeaveException("Weave Basic Object already decrypted");
+			pool.invoke(new DecryptTask(wbos, 0, wbos.length, keyPair));
+		} catch (RuntimeException e) {
+			//Exception may have been rethrown as a copy with the original as cause
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if ( t instanceof WeaveException ) {
+					throw (WeaveException)t;
+				}
 			}
+			throw e;
+		}
+	}
+
+	/**
+	 * lazyDecryptWeaveBasicObjects()
+	 * 
+	 * Replace WBOs in place with LazyWeaveBasicObjects, which decrypt their payload when it is first read.
+	 * The key is resolved once for the whole collection.
+	 */
+	public void lazyDecryptWeaveBasicObjects(WeaveBasicObject[] wbos, String collection) throws WeaveException {
+		if ( wbos.length == 0 ) {
+			return;
+		}
+
+		WeaveKeyPair keyPair = getKeyPair(collection);
+
+		for (int i = 0; i < wbos.length; i++) {
+			wbos[i] = new LazyWeaveBasicObject(wbos[i], this, keyPair);
+		}
+	}
+
+	/**
+	 * decryptWeaveBasicObject()
+	 * 
+	 * Decrypt WBO with key pair previously resolved by getKeyPair(), e.g. once per collection operation
+	 */
+	public WeaveBasicObject decryptWeaveBasicObject(WeaveBasicObject wbo, WeaveKeyPair keyPair) throws WeaveException {
+		EncryptedPayload encrypted = null;
+		try {
+			encrypted = getEncryptedPayload(wbo);
 		} catch (ParseException e) {
 			throw new WeaveException(e);
 		}
-		String payload = decrypt(wbo.getPayload(), collection);
+		if ( encrypted == null ) {
+			throw new WeaveException("Weave Basic Object already decrypted");
+		}
+		String payload = decryptPayload(encrypted, keyPair);
 		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), payload);
 	}
-	
+
+	/**
+	 * DecryptTask
+	 * 
+	 * Recursively split range of WBOs until it is small enough to decrypt sequentially
+	 */
+	private class DecryptTask extends RecursiveAction {
+		private static final long serialVersionUID = -4138722964181307582L;
+
+		private final WeaveBasicObject[] wbos;
+		private final int from;
+		private final int to;
+		private final WeaveKeyPair keyPair;
+
+		DecryptTask(WeaveBasicObject[] wbos, int from, int to, WeaveKeyPair keyPair) {
+			this.wbos    = wbos;
+			this.from    = from;
+			this.to      = to;
+			this.keyPair = keyPair;
+		}
+
+		@Override
+		protected void compute() {
+			if ( to - from <= PARALLEL_DECRYPT_THRESHOLD ) {
+				try {
+					for (int i = from; i < to; i++) {
+						wbos[i] = decryptWeaveBasicObject(wbos[i], keyPair);
+					}
+				} catch (WeaveException e) {
+					throw new RuntimeException(e);
+				}
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new DecryptTask(wbos, from, mid, keyPair), new DecryptTask(wbos, mid, to, keyPair));
+		}
+	}
+
 	public String decrypt(String payload, String collection) throws WeaveException {
-		
-        WeaveKeyPair keyPair = null;
-        
+		return decrypt(EncryptedPayload.parse(payload), collection);
+	}
+
+	public String decrypt(EncryptedPayload payload, String collection) throws WeaveException {
+        return decryptPayload(payload, getKeyPair(collection));
+	}
+
+	/**
+	 * decryptPayload()
+	 *
+	 * Large payloads are decrypted via the streaming cipher methods
+	 */
+	private String decryptPayload(EncryptedPayload payload, WeaveKeyPair keyPair) throws WeaveException {
+		if ( payload.getCiphertext().length() > PayloadCipher.STREAM_THRESHOLD ) {
+			return cipher.decryptStreamed(payload, keyPair);
+		}
+		return cipher.decrypt(payload, keyPair);
+	}
+
+	private String encryptPayload(String plaintext, WeaveKeyPair keyPair) throws WeaveException {
+		if ( plaintext.length() > PayloadCipher.STREAM_THRESHOLD ) {
+			return cipher.encryptStreamed(plaintext, keyPair);
+		}
+		return cipher.encrypt(plaintext, keyPair);
+	}
+
+	/**
+	 * getKeyPair()
+	 *
+	 * Bulk keys are revalidated against the crypto collection modified time on each call, hence
+	 * callers processing many WBOs should resolve the key once and pass it to the WeaveKeyPair methods
+	 *
+	 * @return sync key if collection is null, otherwise bulk key for collection
+	 */
+	public WeaveKeyPair getKeyPair(String collection) throws WeaveException {
         if ( collection == null ) {
         	Log.getInstance().info("Decrypting data record using sync key");
-        	
-        	keyPair = this.privateKey;
-        		
+        	return this.privateKey;
         } else {
         	Log.getInstance().info(String.format("Decrypting data record using bulk key %s", collection));
-
-        	keyPair = this.getBulkKeyPair(collection);
+        	return this.getBulkKeyPair(collection);
         }
-
-        PayloadCipher cipher = new PayloadCipher();
-        
-        return cipher.decrypt(payload, keyPair);
 	}
 
 	public WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, String collection) throws WeaveException {
@@ -248,6 +435,18 @@ public class WeaveSyncV5Crypto {
 		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), payload);
 	}
 
+	public WeaveBasicObject encryptWeaveBasicObject(WeaveBasicObject wbo, WeaveKeyPair keyPair) throws WeaveException {
+		try {
+			if ( isEncrypted(wbo) ) {
+				throw new WeaveException("Weave Basic Object already encrypted");
+			}
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+		String payload = encryptPayload(wbo.getPayload(), keyPair);
+		return new WeaveBasicObject(wbo.getId(), wbo.getModified(), wbo.getSortindex(), wbo.getTtl(), payload);
+	}
+
 	/**
 	 * encrypt()
 	 *
@@ -271,14 +470,21 @@ public class WeaveSyncV5Crypto {
 			keyPair = this.getBulkKeyPair(collection);
 		}
 		
-		PayloadCipher cipher = new PayloadCipher();
-		
-		return cipher.encrypt(plaintext, keyPair);
+		return encryptPayload(plaintext, keyPair);
 	}
 	
 	public boolean isEncrypted(WeaveBasicObject wbo) throws ParseException {
 		//Determine if WBO is encrypted or not
-		JSONObject jsonPayload = wbo.getPayloadAsJSONObject();
-		return ( jsonPayload.containsKey("ciphertext") && jsonPayload.containsKey("IV") && jsonPayload.containsKey("hmac") );
+		return EncryptedPayload.isEncrypted(wbo.getPayloadAsJSONObject());
+	}
+
+	/**
+	 * getEncryptedPayload()
+	 *
+	 * @return encrypted envelope of WBO payload or null if payload is not encrypted. The payload JSON is
+	 * parsed once per WBO and shared with isEncrypted()
+	 */
+	public EncryptedPayload getEncryptedPayload(WeaveBasicObject wbo) throws ParseException {
+		return EncryptedPayload.fromJSONObject(wbo.getPayloadAsJSONObject());
 	}
 }
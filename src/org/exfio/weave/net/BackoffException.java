@@ -0,0 +1,23 @@
+package org.exfio.weave.net;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * BackoffException
+ *
+ * Request rejected without contacting server as server requested clients back off
+ */
+public class BackoffException extends IOException {
+	private static final long serialVersionUID = 3417329126548610935L;
+
+	@Getter private String node;
+	@Getter private long retryAfter;
+
+	public BackoffException(String node, long retryAfter) {
+		super(String.format("Server '%s' requested backoff, retry after %d ms", node, retryAfter));
+		this.node       = node;
+		this.retryAfter = retryAfter;
+	}
+}
@@ -0,0 +1,233 @@
+package org.exfio.weave.net;
+
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+
+import org.exfio.weave.util.Log;
+
+/**
+ * BackoffThrottle
+ *
+ * Track server requested backoff per node, i.e. scheme, host and port, as advertised by the
+ * X-Weave-Backoff, X-Backoff and Retry-After headers or implied by a 503 response. While a backoff
+ * is in force requests to that node are delayed if the backoff expires within maxDelay, otherwise
+ * they are rejected immediately with BackoffException.
+ *
+ * Unless a throttle is explicitly provided all connection pools share the default throttle, hence
+ * backoff state is shared by every StorageContext hitting the same node.
+ *
+ */
+public class BackoffThrottle {
+
+	public static final String HEADER_WEAVE_BACKOFF = "X-Weave-Backoff";
+	public static final String HEADER_BACKOFF       = "X-Backoff";
+	public static final String HEADER_RETRY_AFTER   = "Retry-After";
+
+	public static final long DEFAULT_MAX_DELAY           = 10 * 1000;
+	public static final long DEFAULT_UNAVAILABLE_BACKOFF = 60 * 1000;
+	public static final long MAX_BACKOFF                 = 24 * 60 * 60 * 1000;
+
+	private static BackoffThrottle defaultThrottle = null;
+
+	private final ConcurrentMap<String, Long> backoffUntil;
+	private volatile long maxDelay;
+	private volatile long unavailableBackoff;
+
+	public BackoffThrottle() {
+		this(DEFAULT_MAX_DELAY, DEFAULT_UNAVAILABLE_BACKOFF);
+	}
+
+	/**
+	 * @param maxDelay maximum time in ms to delay a request before rejecting it, 0 to always fail fast
+	 * @param unavailableBackoff backoff in ms for a 503 response without Retry-After header
+	 */
+	public BackoffThrottle(long maxDelay, long unavailableBackoff) {
+		this.backoffUntil       = new ConcurrentHashMap<String, Long>();
+		this.maxDelay           = maxDelay;
+		this.unavailableBackoff = unavailableBackoff;
+	}
+
+	public static synchronized BackoffThrottle getDefault() {
+		if ( defaultThrottle == null ) {
+			defaultThrottle = new BackoffThrottle();
+		}
+		return defaultThrottle;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	public long getUnavailableBackoff() {
+		return unavailableBackoff;
+	}
+
+	public void setUnavailableBackoff(long unavailableBackoff) {
+		this.unavailableBackoff = unavailableBackoff;
+	}
+
+	/**
+	 * await()
+	 *
+	 * Block until node is no longer in backoff, or throw BackoffException if that would exceed maxDelay
+	 */
+	public void await(HttpHost node) throws BackoffException, InterruptedIOException {
+		String key    = nodeKey(node);
+		Long   until  = backoffUntil.get(key);
+		if ( until == null ) {
+			return;
+		}
+
+		long remaining = until - System.currentTimeMillis();
+		if ( remaining <= 0 ) {
+			backoffUntil.remove(key, until);
+			return;
+		}
+
+		if ( remaining > maxDelay ) {
+			throw new BackoffException(key, remaining);
+		}
+
+		Log.getInstance().debug(String.format("Delaying request to '%s' for %d ms due to backoff", key, remaining));
+		try {
+			Thread.sleep(remaining);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for backoff");
+		}
+	}
+
+	/**
+	 * check()
+	 *
+	 * Throw BackoffException if node is in backoff, without delaying. Used by non-blocking requests
+	 * which must not hold the calling thread.
+	 */
+	public void check(HttpHost node) throws BackoffException {
+		String key   = nodeKey(node);
+		Long   until = backoffUntil.get(key);
+		if ( until == null ) {
+			return;
+		}
+
+		long remaining = until - System.currentTimeMillis();
+		if ( remaining <= 0 ) {
+			backoffUntil.remove(key, until);
+			return;
+		}
+		throw new BackoffException(key, remaining);
+	}
+
+	/**
+	 * getBackoff()
+	 *
+	 * Remaining backoff for node in ms, 0 if none
+	 */
+	public long getBackoff(HttpHost node) {
+		Long until = backoffUntil.get(nodeKey(node));
+		if ( until == null ) {
+			return 0;
+		}
+		return Math.max(0, until - System.currentTimeMillis());
+	}
+
+	/**
+	 * backoff()
+	 *
+	 * Extend backoff for node to at least duration ms from now
+	 */
+	public void backoff(HttpHost node, long duration) {
+		if ( duration <= 0 ) {
+			return;
+		}
+
+		String key  = nodeKey(node);
+		Long  until = System.currentTimeMillis() + Math.min(duration, MAX_BACKOFF);
+
+		Log.getInstance().warn(String.format("Server '%s' requested backoff for %d ms", key, duration));
+
+		while ( true ) {
+			Long current = backoffUntil.putIfAbsent(key, until);
+			if ( current == null || current >= until || backoffUntil.replace(key, current, until) ) {
+				return;
+			}
+		}
+	}
+
+	public void clear(HttpHost node) {
+		backoffUntil.remove(nodeKey(node));
+	}
+
+	/**
+	 * process()
+	 *
+	 * Update backoff state for node from response
+	 */
+	public void process(HttpHost node, HttpResponse response) {
+		long duration = 0;
+
+		duration = Math.max(duration, parseSeconds(response.getFirstHeader(HEADER_WEAVE_BACKOFF)));
+		duration = Math.max(duration, parseSeconds(response.getFirstHeader(HEADER_BACKOFF)));
+
+		int code = response.getStatusLine().getStatusCode();
+		if ( code == HttpStatus.SC_SERVICE_UNAVAILABLE || code == 429 ) {
+			long retryAfter = parseRetryAfter(response.getFirstHeader(HEADER_RETRY_AFTER));
+			duration = Math.max(duration, retryAfter > 0 ? retryAfter : unavailableBackoff);
+		}
+
+		backoff(node, duration);
+	}
+
+	private static long parseSeconds(Header header) {
+		if ( header == null ) {
+			return 0;
+		}
+		try {
+			return (long)(Double.parseDouble(header.getValue().trim()) * 1000);
+		} catch (NumberFormatException e) {
+			Log.getInstance().warn(String.format("Invalid %s header '%s'", header.getName(), header.getValue()));
+			return 0;
+		}
+	}
+
+	private static long parseRetryAfter(Header header) {
+		if ( header == null ) {
+			return 0;
+		}
+
+		//Retry-After is either delta seconds or HTTP date
+		String value = header.getValue().trim();
+		if ( value.matches("\\d+") ) {
+			return parseSeconds(header);
+		}
+
+		Date date = DateUtils.parseDate(value);
+		if ( date == null ) {
+			Log.getInstance().warn(String.format("Invalid %s header '%s'", header.getName(), value));
+			return 0;
+		}
+		return date.getTime() - System.currentTimeMillis();
+	}
+
+	private static String nodeKey(HttpHost node) {
+		String scheme = node.getSchemeName().toLowerCase(Locale.ROOT);
+		int    port   = node.getPort();
+		if ( port < 0 ) {
+			port = ( scheme.equals("https") ? 443 : 80 );
+		}
+		return String.format("%s://%s:%d", scheme, node.getHostName().toLowerCase(Locale.ROOT), port);
+	}
+}
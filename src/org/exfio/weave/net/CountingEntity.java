@@ -0,0 +1,48 @@
+package org.exfio.weave.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * CountingEntity
+ *
+ * Entity wrapper that adds the number of bytes read from or written by the wrapped entity to a counter
+ */
+class CountingEntity extends HttpEntityWrapper {
+
+	private final AtomicLong counter;
+
+	public CountingEntity(HttpEntity wrappedEntity, AtomicLong counter) {
+		super(wrappedEntity);
+		this.counter = counter;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return new ProxyInputStream(super.getContent()) {
+			@Override
+			protected void afterRead(int n) {
+				if ( n > 0 ) {
+					counter.addAndGet(n);
+				}
+			}
+		};
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		super.writeTo(new ProxyOutputStream(out) {
+			@Override
+			protected void beforeWrite(int n) {
+				counter.addAndGet(n);
+			}
+		});
+	}
+}
@@ -15,6 +15,7 @@ package org.exfio.weave.net;
 
 import java.security.GeneralSecurityException;
 import java.io.IOException;
+import java.util.concurrent.Future;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -25,22 +26,25 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest; 
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.protocol.BasicHttpContext;
 import org.mozilla.gecko.sync.net.AuthHeaderProvider;
 import org.exfio.weave.Constants;
 import org.exfio.weave.client.PreconditionFailedException;
 import org.exfio.weave.net.HttpException;
 import org.exfio.weave.net.HttpRequestRetryHandler;
 import org.exfio.weave.storage.NotFoundException;
+import org.exfio.weave.storage.NotModifiedException;
 import org.exfio.weave.util.Log;
 
 public class HttpClient {
 
 	public final static String DEFAULT_USER_AGENT = "eXfio Weave/" + Constants.APP_VERSION;
 	
-	private CloseableHttpClient httpClient = null;
-	
+	@Getter private HttpConnectionPool connectionPool = null;
 	@Getter private String userAgent = null;
 	@Setter private HttpClientContext context = null;
 	@Setter private AuthHeaderProvider authHeaderProvider = null;
@@ -51,14 +55,17 @@ public class HttpClient {
 	}
 	
 	public HttpClient(String userAgent) {
+		this(HttpConnectionPool.getDefault(), userAgent);
+	}
 
-		this.userAgent = userAgent;
-		this.context = HttpClientContext.create();
-		
-		httpClient = HttpClients.custom()
-			.setRetryHandler(HttpRequestRetryHandler.INSTANCE)
-			.setUserAgent(userAgent)
-			.build();
+	public HttpClient(HttpConnectionPool connectionPool) {
+		this(connectionPool, DEFAULT_USER_AGENT);
+	}
+
+	public HttpClient(HttpConnectionPool connectionPool, String userAgent) {
+		this.connectionPool = connectionPool;
+		this.userAgent      = userAgent;
+		this.context        = HttpClientContext.create();
 	}
 
 	public static void closeResponse(CloseableHttpResponse response) {
@@ -86,6 +93,8 @@ public class HttpClient {
 		
 		String reason = code + " " + statusLine.getReasonPhrase();
 		switch (code) {
+		case HttpStatus.SC_NOT_MODIFIED:
+			throw new NotModifiedException(reason);
 		case HttpStatus.SC_NOT_FOUND:
 			throw new NotFoundException(reason);
 		case HttpStatus.SC_PRECONDITION_FAILED:
@@ -96,16 +105,72 @@ public class HttpClient {
 	}
 	
 	public CloseableHttpResponse execute(HttpUriRequest request) throws IOException, GeneralSecurityException {
+		//Delay or reject request if server has requested backoff
+		HttpHost target = URIUtils.extractHost(request.getURI());
+		if ( target != null ) {
+			connectionPool.getThrottle().await(target);
+		}
+
+		if ( userAgent != null && !request.containsHeader(HttpHeaders.USER_AGENT) ) {
+			request.setHeader(HttpHeaders.USER_AGENT, userAgent);
+		}
 		if ( authHeaderProvider != null ) {
 			request.addHeader(authHeaderProvider.getAuthHeader(request, null, null));
 		}		
-		return httpClient.execute(request, context);
+		//Use child context per request so that requests can safely be executed concurrently
+		return connectionPool.getHttpClient().execute(request, new HttpClientContext(new BasicHttpContext(context)));
 	}
 	
-	public void close() throws IOException {
-		if ( httpClient != null ) {
-			httpClient.close();
+	/**
+	 * executeAsync()
+	 *
+	 * Execute request on the non-blocking client of the connection pool, i.e. return immediately and
+	 * notify callback on an I/O dispatch thread once the response has been received in full. Callbacks
+	 * MUST NOT block. Requests to a node in backoff fail with BackoffException rather than being delayed.
+	 */
+	public Future<HttpResponse> executeAsync(HttpUriRequest request, final FutureCallback<HttpResponse> callback) throws IOException, GeneralSecurityException {
+		final HttpHost target = URIUtils.extractHost(request.getURI());
+		if ( target != null ) {
+			connectionPool.getThrottle().check(target);
+		}
+
+		if ( userAgent != null && !request.containsHeader(HttpHeaders.USER_AGENT) ) {
+			request.setHeader(HttpHeaders.USER_AGENT, userAgent);
 		}
+		if ( authHeaderProvider != null ) {
+			request.addHeader(authHeaderProvider.getAuthHeader(request, null, null));
+		}
+		connectionPool.prepareAsyncRequest(request);
+
+		return connectionPool.getHttpAsyncClient().execute(request, new HttpClientContext(new BasicHttpContext(context)), new FutureCallback<HttpResponse>() {
+			public void completed(HttpResponse response) {
+				try {
+					connectionPool.processAsyncResponse(target, response);
+				} catch (org.apache.http.HttpException e) {
+					callback.failed(e);
+					return;
+				}
+				callback.completed(response);
+			}
+
+			public void failed(Exception e) {
+				callback.failed(e);
+			}
+
+			public void cancelled() {
+				callback.cancelled();
+			}
+		});
+	}
+
+	/**
+	 * close()
+	 *
+	 * Connections belong to the (possibly shared) pool and are released as each response is closed,
+	 * hence the pool is left open. Use HttpConnectionPool.shutdown() to close pooled connections.
+	 */
+	public void close() throws IOException {
+		//Nothing to release
 	}
 
 }
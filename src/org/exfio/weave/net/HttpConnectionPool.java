@@ -0,0 +1,366 @@
+package org.exfio.weave.net;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+
+import org.exfio.weave.util.Log;
+
+/**
+ * HttpConnectionPool
+ *
+ * Pooled connection manager and the underlying http client built on top of it. A single pool can be
+ * shared by any number of HttpClient instances (and hence StorageContext and WeaveAccount instances)
+ * so that connections, including TLS sessions, are reused across accounts.
+ *
+ * Unless a pool is explicitly provided HttpClient uses the process wide default pool. Clients are
+ * shared by accounts, hence cookie management is disabled.
+ *
+ * The pool also provides a non-blocking client for HttpClient.executeAsync(), created on first use.
+ * Its connections are pooled separately and served by params.ioThreadCount I/O dispatch threads,
+ * hence the number of requests in flight is not limited by the number of threads.
+ *
+ */
+public class HttpConnectionPool {
+
+	private static HttpConnectionPool defaultPool = null;
+
+	private final HttpConnectionPoolParams params;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final ConnectionKeepAliveStrategy keepAliveStrategy;
+	private final RequestConfig requestConfig;
+	private final HttpTransferStats stats;
+	private final BackoffThrottle throttle;
+	private ScheduledExecutorService evictor;
+	private PoolingNHttpClientConnectionManager asyncConnectionManager = null;
+	private CloseableHttpAsyncClient httpAsyncClient                   = null;
+	private boolean isShutdown                                         = false;
+
+	public HttpConnectionPool() {
+		this(new HttpConnectionPoolParams());
+	}
+
+	public HttpConnectionPool(final HttpConnectionPoolParams params) {
+		this(params, BackoffThrottle.getDefault());
+	}
+
+	public HttpConnectionPool(final HttpConnectionPoolParams params, final BackoffThrottle throttle) {
+		this.params   = params;
+		this.stats    = new HttpTransferStats();
+		this.throttle = throttle;
+
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(params.maxTotal);
+		connectionManager.setDefaultMaxPerRoute(params.maxPerRoute);
+		connectionManager.setDefaultSocketConfig(
+			SocketConfig.custom()
+				.setSoTimeout(params.socketTimeout)
+				.setSoKeepAlive(true)
+				.setTcpNoDelay(true)
+				.build()
+		);
+
+		requestConfig = RequestConfig.custom()
+			.setConnectTimeout(params.connectTimeout)
+			.setSocketTimeout(params.socketTimeout)
+			.setConnectionRequestTimeout(params.connectionRequestTimeout)
+			.build();
+
+		keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				//Honour Keep-Alive header if present
+				long duration = super.getKeepAliveDuration(response, context);
+				return ( duration > 0 ? duration : params.keepAlive );
+			}
+		};
+
+		httpClient = HttpClients.custom()
+			.setConnectionManager(connectionManager)
+			.setDefaultRequestConfig(requestConfig)
+			.setKeepAliveStrategy(keepAliveStrategy)
+			.setRetryHandler(HttpRequestRetryHandler.INSTANCE)
+			.disableContentCompression()
+			.disableCookieManagement()
+			.addInterceptorFirst(new HttpRequestInterceptor() {
+				public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+					processRequest(request, params.compressRequests);
+				}
+			})
+			.addInterceptorFirst(new HttpResponseInterceptor() {
+				public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+					HttpHost target = HttpClientContext.adapt(context).getTargetHost();
+					if ( target != null ) {
+						throttle.process(target, response);
+					}
+					processResponse(response);
+				}
+			})
+			.build();
+
+		if ( params.idleTimeout > 0 && params.evictionInterval > 0 ) {
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+				.namingPattern("weavehttpevictor-%d")
+				.daemon(true)
+				.build();
+			evictor = Executors.newSingleThreadScheduledExecutor(factory);
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(params.idleTimeout, TimeUnit.MILLISECONDS);
+
+					PoolingNHttpClientConnectionManager asyncManager = null;
+					synchronized (HttpConnectionPool.this) {
+						asyncManager = asyncConnectionManager;
+					}
+					if ( asyncManager != null ) {
+						asyncManager.closeExpiredConnections();
+						asyncManager.closeIdleConnections(params.idleTimeout, TimeUnit.MILLISECONDS);
+					}
+				}
+			}, params.evictionInterval, params.evictionInterval, TimeUnit.MILLISECONDS);
+		} else {
+			evictor = null;
+		}
+	}
+
+	public static synchronized HttpConnectionPool getDefault() {
+		if ( defaultPool == null ) {
+			defaultPool = new HttpConnectionPool();
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * setDefault()
+	 *
+	 * Replace process wide default pool. Should be called before any HttpClient is created, the
+	 * previous default pool is not shutdown as it may still be in use.
+	 */
+	public static synchronized void setDefault(HttpConnectionPool pool) {
+		defaultPool = pool;
+	}
+
+	public HttpConnectionPoolParams getParams() {
+		return params;
+	}
+
+	CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * getHttpAsyncClient()
+	 *
+	 * Non-blocking client, created and started on first use. Responses are buffered in memory before
+	 * completion. Requests and responses are not processed by interceptors, see prepareAsyncRequest()
+	 * and processAsyncResponse().
+	 */
+	synchronized CloseableHttpAsyncClient getHttpAsyncClient() throws IOException {
+		if ( isShutdown ) {
+			throw new IOException("HttpConnectionPool has been shut down");
+		}
+
+		if ( httpAsyncClient == null ) {
+			IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(params.ioThreadCount)
+				.setConnectTimeout(params.connectTimeout)
+				.setSoTimeout(params.socketTimeout)
+				.setSoKeepAlive(true)
+				.setTcpNoDelay(true)
+				.build();
+
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+				.namingPattern("weavehttpio-%d")
+				.daemon(true)
+				.build();
+
+			PoolingNHttpClientConnectionManager asyncManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig, factory));
+			asyncManager.setMaxTotal(params.maxTotal);
+			asyncManager.setDefaultMaxPerRoute(params.maxPerRoute);
+
+			CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+				.setConnectionManager(asyncManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.disableCookieManagement()
+				.setThreadFactory(factory)
+				.build();
+			client.start();
+
+			asyncConnectionManager = asyncManager;
+			httpAsyncClient        = client;
+		}
+		return httpAsyncClient;
+	}
+
+	public HttpTransferStats getStats() {
+		return stats;
+	}
+
+	public BackoffThrottle getThrottle() {
+		return throttle;
+	}
+
+	/**
+	 * prepareAsyncRequest()
+	 *
+	 * Process request before it is passed to the non-blocking client. The request body is produced
+	 * from the entity content, hence it can not be compressed.
+	 */
+	void prepareAsyncRequest(HttpRequest request) {
+		processRequest(request, false);
+	}
+
+	/**
+	 * processAsyncResponse()
+	 *
+	 * Process buffered response from the non-blocking client, as the response interceptor does for
+	 * the blocking client
+	 */
+	void processAsyncResponse(HttpHost target, HttpResponse response) throws HttpException {
+		if ( target != null ) {
+			throttle.process(target, response);
+		}
+		processResponse(response);
+	}
+
+	/**
+	 * processRequest()
+	 *
+	 * Advertise supported content encodings and optionally compress request body
+	 */
+	private void processRequest(HttpRequest request, boolean compress) {
+		if ( params.acceptCompressed && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING) ) {
+			request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate");
+		}
+
+		if ( !(request instanceof HttpEntityEnclosingRequest) ) {
+			return;
+		}
+
+		HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest)request;
+		HttpEntity entity = entityRequest.getEntity();
+		if ( entity == null || entity instanceof CountingEntity ) {
+			//No body or already processed, i.e. request is being retried
+			return;
+		}
+
+		entity = new CountingEntity(entity, stats.requestBytes);
+
+		long length = entity.getContentLength();
+		if ( compress && entity.getContentEncoding() == null && (length < 0 || length >= params.compressThreshold) ) {
+			entity = new GzipCompressingEntity(entity);
+		}
+
+		entityRequest.setEntity(new CountingEntity(entity, stats.requestBytesSent));
+	}
+
+	/**
+	 * processResponse()
+	 *
+	 * Decode gzip/deflate response body
+	 */
+	private void processResponse(HttpResponse response) throws HttpException {
+		HttpEntity entity = response.getEntity();
+		if ( entity == null || entity.getContentLength() == 0 ) {
+			return;
+		}
+
+		entity = new CountingEntity(entity, stats.responseBytesReceived);
+
+		Header encoding = entity.getContentEncoding();
+		if ( encoding != null ) {
+			String codec = encoding.getValue().trim().toLowerCase(Locale.ROOT);
+			if ( codec.equals("gzip") || codec.equals("x-gzip") ) {
+				entity = new GzipDecompressingEntity(entity);
+			} else if ( codec.equals("deflate") ) {
+				entity = new DeflateDecompressingEntity(entity);
+			} else if ( !codec.equals("identity") ) {
+				throw new HttpException("Unsupported Content-Encoding: " + encoding.getValue());
+			}
+
+			if ( entity != response.getEntity() ) {
+				response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+				response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+				response.removeHeaders(HttpHeaders.CONTENT_MD5);
+			}
+		}
+
+		response.setEntity(new CountingEntity(entity, stats.responseBytes));
+	}
+
+	/**
+	 * shutdown()
+	 *
+	 * Close all pooled connections. The pool can not be used afterwards.
+	 */
+	public void shutdown() {
+		synchronized (HttpConnectionPool.class) {
+			if ( defaultPool == this ) {
+				defaultPool = null;
+			}
+		}
+
+		CloseableHttpAsyncClient asyncClient = null;
+		synchronized (this) {
+			isShutdown             = true;
+			asyncClient            = httpAsyncClient;
+			httpAsyncClient        = null;
+			asyncConnectionManager = null;
+		}
+		if ( asyncClient != null ) {
+			try {
+				//Also shuts down its connection manager
+				asyncClient.close();
+			} catch (IOException e) {
+				//fail quietly
+				Log.getInstance().error("Couldn't close non-blocking http client - " + e.getMessage());
+			}
+		}
+
+		if ( evictor != null ) {
+			evictor.shutdownNow();
+			evictor = null;
+		}
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			//fail quietly
+			Log.getInstance().error("Couldn't close HttpConnectionPool - " + e.getMessage());
+		}
+		connectionManager.shutdown();
+	}
+}
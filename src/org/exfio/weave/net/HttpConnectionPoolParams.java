@@ -0,0 +1,44 @@
+package org.exfio.weave.net;
+
+/**
+ * HttpConnectionPoolParams
+ *
+ * Pool sizes, timeouts and keep-alive settings for HttpConnectionPool. All durations are in milliseconds.
+ */
+public class HttpConnectionPoolParams {
+
+	public static final int  DEFAULT_MAX_TOTAL                  = 200;
+	public static final int  DEFAULT_MAX_PER_ROUTE              = 20;
+	public static final int  DEFAULT_CONNECT_TIMEOUT            = 30 * 1000;
+	public static final int  DEFAULT_SOCKET_TIMEOUT             = 60 * 1000;
+	public static final int  DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30 * 1000;
+	public static final long DEFAULT_KEEP_ALIVE                 = 30 * 1000;
+	public static final long DEFAULT_IDLE_TIMEOUT               = 60 * 1000;
+	public static final long DEFAULT_EVICTION_INTERVAL          = 15 * 1000;
+	public static final long DEFAULT_COMPRESS_THRESHOLD         = 1024;
+	public static final int  DEFAULT_IO_THREAD_COUNT            = Runtime.getRuntime().availableProcessors();
+
+	public int  maxTotal                 = DEFAULT_MAX_TOTAL;
+	public int  maxPerRoute              = DEFAULT_MAX_PER_ROUTE;
+	public int  connectTimeout           = DEFAULT_CONNECT_TIMEOUT;
+	public int  socketTimeout            = DEFAULT_SOCKET_TIMEOUT;
+	public int  connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+
+	//I/O dispatch threads of the non-blocking client, shared by all of its connections
+	public int  ioThreadCount            = DEFAULT_IO_THREAD_COUNT;
+
+	//Used when server does not send Keep-Alive header
+	public long keepAlive                = DEFAULT_KEEP_ALIVE;
+
+	//Idle connections are closed by background eviction task, 0 to disable
+	public long idleTimeout              = DEFAULT_IDLE_TIMEOUT;
+	public long evictionInterval         = DEFAULT_EVICTION_INTERVAL;
+
+	//Advertise and decode gzip/deflate responses
+	public boolean acceptCompressed      = true;
+
+	//Gzip request bodies of at least compressThreshold bytes. Server MUST support Content-Encoding: gzip.
+	//Not supported by the non-blocking client, which sends request bodies uncompressed
+	public boolean compressRequests      = false;
+	public long compressThreshold        = DEFAULT_COMPRESS_THRESHOLD;
+}
@@ -0,0 +1,55 @@
+package org.exfio.weave.net;
+
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * HttpRequestFuture
+ *
+ * Future for the result of one or more chained non-blocking requests, optionally notifying a
+ * FutureCallback on completion, failure or cancellation. Cancelling the future cancels the request
+ * currently in flight.
+ *
+ */
+public class HttpRequestFuture<T> extends BasicFuture<T> {
+
+	private Future<?> pending = null;
+
+	public HttpRequestFuture(FutureCallback<T> callback) {
+		super(callback);
+	}
+
+	/**
+	 * setPending()
+	 *
+	 * Request currently in flight, cancelled immediately if this future has already been cancelled.
+	 * A request that has already completed may have chained the next request, hence it is ignored.
+	 */
+	public void setPending(Future<?> request) {
+		synchronized (this) {
+			if ( request.isDone() ) {
+				return;
+			}
+			pending = request;
+		}
+		if ( isCancelled() ) {
+			request.cancel(true);
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+		Future<?> request = null;
+		synchronized (this) {
+			request = pending;
+		}
+		if ( cancelled && request != null ) {
+			request.cancel(true);
+		}
+		return cancelled;
+	}
+}
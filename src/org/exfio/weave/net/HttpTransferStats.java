@@ -0,0 +1,55 @@
+package org.exfio.weave.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.ToString;
+
+/**
+ * HttpTransferStats
+ *
+ * Byte counters for request and response bodies, both as transferred on the wire and before
+ * compression/after decompression, i.e. the saving due to compression is the difference.
+ */
+@ToString
+public class HttpTransferStats {
+
+	protected final AtomicLong requestBytes          = new AtomicLong(0);
+	protected final AtomicLong requestBytesSent      = new AtomicLong(0);
+	protected final AtomicLong responseBytes         = new AtomicLong(0);
+	protected final AtomicLong responseBytesReceived = new AtomicLong(0);
+
+	/**
+	 * Request body bytes before compression
+	 */
+	public long getRequestBytes() {
+		return requestBytes.get();
+	}
+
+	/**
+	 * Request body bytes sent, i.e. after compression
+	 */
+	public long getRequestBytesSent() {
+		return requestBytesSent.get();
+	}
+
+	/**
+	 * Response body bytes after decompression
+	 */
+	public long getResponseBytes() {
+		return responseBytes.get();
+	}
+
+	/**
+	 * Response body bytes received, i.e. before decompression
+	 */
+	public long getResponseBytesReceived() {
+		return responseBytesReceived.get();
+	}
+
+	public void reset() {
+		requestBytes.set(0);
+		requestBytesSent.set(0);
+		responseBytes.set(0);
+		responseBytesReceived.set(0);
+	}
+}
@@ -0,0 +1,19 @@
+package org.exfio.weave.storage;
+
+import org.exfio.weave.WeaveException;
+
+public class BatchNotSupportedException extends WeaveException {
+	private static final long serialVersionUID = 4817603592210376481L;
+	
+	public BatchNotSupportedException(String message) {
+		super(message);
+	}
+
+	public BatchNotSupportedException(Throwable throwable) {
+		super(throwable);
+	}
+
+	public BatchNotSupportedException(String message, Throwable throwable) {
+		super(message, throwable);
+	}
+}
@@ -0,0 +1,12 @@
+package org.exfio.weave.storage;
+
+import org.apache.http.HttpStatus;
+import org.exfio.weave.net.HttpException;
+
+public class NotModifiedException extends HttpException {
+	private static final long serialVersionUID = -2950284532476871150L;
+	
+	public NotModifiedException(String reason) {
+		super(HttpStatus.SC_NOT_MODIFIED, reason);
+	}
+}
@@ -16,13 +16,18 @@ import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
@@ -30,20 +35,26 @@ import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.exfio.weave.Constants;
 import org.exfio.weave.WeaveException;
 import org.exfio.weave.net.HttpClient;
+import org.exfio.weave.net.HttpConnectionPool;
 import org.exfio.weave.net.HttpException;
+import org.exfio.weave.net.HttpTransferStats;
 import org.exfio.weave.util.Base64;
 import org.exfio.weave.util.JSONUtils;
 import org.exfio.weave.util.Log;
 import org.exfio.weave.util.URIUtils;
 import org.exfio.weave.client.PreconditionFailedException;
+import org.exfio.weave.client.WeaveClientFactory;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.crypto.RandomSource;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -51,12 +62,32 @@ import org.json.simple.parser.ParseException;
 
 public abstract class StorageContext {
 	
+	public static final String HEADER_NEXT_OFFSET          = "X-Weave-Next-Offset";
+	public static final String HEADER_IF_MODIFIED_SINCE    = "X-If-Modified-Since";
+	public static final String HEADER_IF_UNMODIFIED_SINCE  = "X-If-Unmodified-Since";
+
 	protected HttpClient httpClient = null;
 	protected ApiVersion version    = null;
 	protected URI storageURL;
+
+	public static final long DEFAULT_INFO_COLLECTIONS_TTL = 5 * 1000;
+
+	//Last info/collections response, used to make conditional requests and served from cache until ttl expires
+	private URI infoCollectionsLocation         = null;
+	private Map<String, Double> infoCollections = null;
+	private Double infoCollectionsModified      = null;
+	private long infoCollectionsFetched         = 0;
+	private long infoCollectionsGeneration      = 0;
+	private long infoCollectionsTTL             = DEFAULT_INFO_COLLECTIONS_TTL;
+	private FutureTask<Map<String, Double>> infoCollectionsPending = null;
+	private URI infoCollectionsPendingLocation  = null;
 	
 	public StorageContext() throws WeaveException {
-		httpClient = new HttpClient();
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public StorageContext(HttpConnectionPool connectionPool) throws WeaveException {
+		httpClient = new HttpClient(connectionPool);
 	}
 	
 	public abstract void init(StorageParams storageParams) throws WeaveException;
@@ -65,9 +96,17 @@ public abstract class StorageContext {
 		return this.version;
 	}
 	
+	/**
+	 * getTransferStats()
+	 * 
+	 * Byte counters for the connection pool used by this context, which may be shared with other contexts
+	 */
+	public HttpTransferStats getTransferStats() {
+		return httpClient.getConnectionPool().getStats();
+	}
+
 	public String generateWeaveID() {
-		SecureRandom rnd = new SecureRandom();
-		byte[] weaveID = rnd.generateSeed(9);
+		byte[] weaveID = RandomSource.getDefault().nextBytes(9);
 		return Base64.encodeToString(weaveID, Base64.NO_PADDING | Base64.NO_WRAP | Base64.URL_SAFE);
 	}
 			
@@ -76,26 +115,13 @@ public abstract class StorageContext {
 	public Map<String, WeaveCollectionInfo> getInfoCollections(boolean getcount, boolean getusage) throws WeaveException {
 		Log.getInstance().debug( "getInfoCollections()");
 		
-		Map<String, WeaveCollectionInfo> wcols = new HashMap<String, WeaveCollectionInfo>();
 		URI location = null;
 		JSONObject jsonObject = null;
 		
 		//Always get info/collections
 		location = this.storageURL.resolve("info/collections");
-		try {
-			jsonObject = getJSONPayload(location);
-		} catch (NotFoundException e) {
-			throw new WeaveException("info/collections record not found - " + e.getMessage());
-		}
-			
-		@SuppressWarnings("unchecked")
-		Iterator<String> itCol = jsonObject.keySet().iterator();
-		while ( itCol.hasNext() ) {
-			String collection = itCol.next();
-			WeaveCollectionInfo wcolInfo = new WeaveCollectionInfo(collection);
-			wcolInfo.modified = JSONUtils.toDouble(jsonObject.get(collection));
-			wcols.put(collection, wcolInfo);
-		}
+
+		Map<String, WeaveCollectionInfo> wcols = buildCollectionInfo(getInfoCollectionsModified(location));
 
 		//Optionally get info/collection_counts
 		if ( getcount ) {
@@ -105,18 +131,7 @@ public abstract class StorageContext {
 			} catch (NotFoundException e) {
 				throw new WeaveException("info/collection_counts record not found - " + e.getMessage());
 			}
-	
-			@SuppressWarnings("unchecked")
-			Iterator<String> itQuota = jsonObject.keySet().iterator();
-			while ( itQuota.hasNext() ) {
-				String collection = itQuota.next();
-				if ( wcols.containsKey(collection) ) {
-					wcols.get(collection).count = (Long)jsonObject.get(collection);
-				} else {
-					//quietly do nothing
-					//throw new WeaveException(String.format("Collection '%s' not in info/collections", collection));
-				}
-			}
+			applyCollectionCounts(wcols, jsonObject);
 		}
 		
 		//Optionally get info/collection_usage
@@ -127,27 +142,297 @@ public abstract class StorageContext {
 			} catch (NotFoundException e) {
 				throw new WeaveException("info/collection_usage record not found - " + e.getMessage());
 			}
-	
-			@SuppressWarnings("unchecked")
-			Iterator<String> itUsage = jsonObject.keySet().iterator();
-			while ( itUsage.hasNext() ) {
-				String collection = itUsage.next();
-				if ( wcols.containsKey(collection) ) {
-					wcols.get(collection).usage = JSONUtils.toDouble(jsonObject.get(collection));
-				} else {
-					//quietly do nothing
-					//throw new WeaveException(String.format("Collection '%s' not in info/collections", collection));
-				}
-			}
+			applyCollectionUsage(wcols, jsonObject);
 		}
 		
 		return wcols;
 	}
+
+	static Map<String, WeaveCollectionInfo> buildCollectionInfo(Map<String, Double> colModified) {
+		Map<String, WeaveCollectionInfo> wcols = new HashMap<String, WeaveCollectionInfo>();
+
+		Iterator<String> itCol = colModified.keySet().iterator();
+		while ( itCol.hasNext() ) {
+			String collection = itCol.next();
+			WeaveCollectionInfo wcolInfo = new WeaveCollectionInfo(collection);
+			wcolInfo.modified = colModified.get(collection);
+			wcols.put(collection, wcolInfo);
+		}
+		return wcols;
+	}
+
+	static void applyCollectionCounts(Map<String, WeaveCollectionInfo> wcols, JSONObject jsonObject) {
+		@SuppressWarnings("unchecked")
+		Iterator<String> itQuota = jsonObject.keySet().iterator();
+		while ( itQuota.hasNext() ) {
+			String collection = itQuota.next();
+			if ( wcols.containsKey(collection) ) {
+				wcols.get(collection).count = (Long)jsonObject.get(collection);
+			} else {
+				//quietly do nothing
+				//throw new WeaveException(String.format("Collection '%s' not in info/collections", collection));
+			}
+		}
+	}
+
+	static void applyCollectionUsage(Map<String, WeaveCollectionInfo> wcols, JSONObject jsonObject) {
+		@SuppressWarnings("unchecked")
+		Iterator<String> itUsage = jsonObject.keySet().iterator();
+		while ( itUsage.hasNext() ) {
+			String collection = itUsage.next();
+			if ( wcols.containsKey(collection) ) {
+				wcols.get(collection).usage = JSONUtils.toDouble(jsonObject.get(collection));
+			} else {
+				//quietly do nothing
+				//throw new WeaveException(String.format("Collection '%s' not in info/collections", collection));
+			}
+		}
+	}
 	
+	/**
+	 * getCollectionModified()
+	 * 
+	 * Modified time of collection from info/collections, subject to info/collections ttl
+	 * 
+	 * @return modified time or null if collection does not exist
+	 */
+	public Double getCollectionModified(String collection) throws WeaveException {
+		return getInfoCollectionsModified(this.storageURL.resolve("info/collections")).get(collection);
+	}
+
+	public synchronized long getInfoCollectionsTTL() {
+		return infoCollectionsTTL;
+	}
+
+	/**
+	 * setInfoCollectionsTTL()
+	 * 
+	 * Time in ms for which info/collections is served from cache, 0 to always revalidate with server
+	 */
+	public synchronized void setInfoCollectionsTTL(long ttl) {
+		infoCollectionsTTL = ttl;
+	}
+
+	/**
+	 * getInfoCollectionsModified()
+	 * 
+	 * Collection modified times from cache if fresh, otherwise from server. Concurrent callers share a
+	 * single in-flight request, which is conditional if a previous response is available.
+	 */
+	private Map<String, Double> getInfoCollectionsModified(final URI location) throws WeaveException {
+		FutureTask<Map<String, Double>> task = null;
+		boolean owner = false;
+
+		synchronized (this) {
+			Map<String, Double> cached = getCachedInfoCollections(location);
+			if ( cached != null ) {
+				return cached;
+			}
+
+			if ( infoCollectionsPending != null && location.equals(infoCollectionsPendingLocation) ) {
+				task = infoCollectionsPending;
+			} else {
+				task = new FutureTask<Map<String, Double>>(new Callable<Map<String, Double>>() {
+					public Map<String, Double> call() throws Exception {
+						return fetchInfoCollections(location);
+					}
+				});
+				infoCollectionsPending         = task;
+				infoCollectionsPendingLocation = location;
+				owner = true;
+			}
+		}
+
+		if ( owner ) {
+			try {
+				task.run();
+			} finally {
+				synchronized (this) {
+					if ( infoCollectionsPending == task ) {
+						infoCollectionsPending         = null;
+						infoCollectionsPendingLocation = null;
+					}
+				}
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WeaveException(e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof WeaveException ) {
+				throw (WeaveException)e.getCause();
+			}
+			throw new WeaveException(e.getCause());
+		}
+	}
+
+	/**
+	 * getCachedInfoCollections()
+	 * 
+	 * Collection modified times from cache if fresh, otherwise null
+	 */
+	synchronized Map<String, Double> getCachedInfoCollections(URI location) {
+		if ( infoCollections != null && location.equals(infoCollectionsLocation) && System.currentTimeMillis() - infoCollectionsFetched < infoCollectionsTTL ) {
+			Log.getInstance().debug("info/collections served from cache");
+			return infoCollections;
+		}
+		return null;
+	}
+
+	private Map<String, Double> fetchInfoCollections(URI location) throws WeaveException {
+		InfoCollectionsRequest request = beginInfoCollectionsRequest(location);
+
+		try {
+			return completeInfoCollectionsRequest(request, getJSONPayload(location, false, request.ifModifiedSince));
+		} catch (NotModifiedException e) {
+			return completeInfoCollectionsRequest(request, null);
+		} catch (NotFoundException e) {
+			throw new WeaveException("info/collections record not found - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * InfoCollectionsRequest
+	 * 
+	 * Cache state captured when an info/collections request is sent
+	 */
+	static class InfoCollectionsRequest {
+		URI location;
+		Map<String, Double> cached;
+		Double ifModifiedSince;
+		long generation;
+	}
+
+	synchronized InfoCollectionsRequest beginInfoCollectionsRequest(URI location) {
+		InfoCollectionsRequest request = new InfoCollectionsRequest();
+		request.location   = location;
+		request.generation = infoCollectionsGeneration;
+		if ( location.equals(infoCollectionsLocation) && infoCollections != null ) {
+			//Only download info/collections if modified since previous server response. Modified times
+			//applied by our own writes are not used as they could hide earlier writes by other clients
+			request.cached          = infoCollections;
+			request.ifModifiedSince = infoCollectionsModified;
+		}
+		return request;
+	}
+
+	/**
+	 * completeInfoCollectionsRequest()
+	 * 
+	 * Update cache from info/collections response, jsonObject is null if not modified
+	 */
+	Map<String, Double> completeInfoCollectionsRequest(InfoCollectionsRequest request, JSONObject jsonObject) throws WeaveException {
+		Map<String, Double> colModified = null;
+		Double modified                 = null;
+
+		if ( jsonObject == null ) {
+			Log.getInstance().debug("info/collections not modified");
+			if ( request.cached == null ) {
+				//Not expected as request is unconditional
+				throw new WeaveException("info/collections not modified without cached copy");
+			}
+			colModified = request.cached;
+			modified    = request.ifModifiedSince;
+		} else {
+			colModified = new HashMap<String, Double>();
+			@SuppressWarnings("unchecked")
+			Iterator<String> itCol = jsonObject.keySet().iterator();
+			while ( itCol.hasNext() ) {
+				String collection = itCol.next();
+				colModified.put(collection, JSONUtils.toDouble(jsonObject.get(collection)));
+			}
+			modified = getLastModified(colModified);
+		}
+
+		synchronized (this) {
+			//Don't overwrite changes made by our own writes while request was in flight
+			if ( request.generation == infoCollectionsGeneration ) {
+				infoCollectionsLocation = request.location;
+				infoCollections         = colModified;
+				infoCollectionsModified = modified;
+				infoCollectionsFetched  = System.currentTimeMillis();
+			}
+		}
+
+		return colModified;
+	}
+
+	/**
+	 * updateInfoCollections()
+	 * 
+	 * Apply modified time returned by our own write to cached info/collections, i.e. collection is null
+	 * if all collections were deleted and modified is null if collection was deleted. The server modified
+	 * time used for conditional requests is left unchanged.
+	 */
+	synchronized void updateInfoCollections(String collection, Double modified, boolean deleted) {
+		infoCollectionsGeneration++;
+
+		if ( infoCollections == null ) {
+			return;
+		}
+
+		if ( collection == null ) {
+			//Force refresh
+			infoCollections = null;
+			return;
+		}
+
+		Map<String, Double> colModified = new HashMap<String, Double>(infoCollections);
+		if ( deleted ) {
+			colModified.remove(collection);
+		} else if ( modified != null ) {
+			colModified.put(collection, modified);
+		} else {
+			//Modified time unknown, force refresh
+			infoCollections = null;
+			return;
+		}
+		infoCollections = colModified;
+	}
+
+	/**
+	 * getCollectionName()
+	 * 
+	 * Extract collection name from storage location, null if location is not within a collection
+	 */
+	String getCollectionName(URI location) {
+		String path = this.storageURL.relativize(location).getPath();
+		String[] segments = path.split("/");
+		if ( segments.length < 2 || !segments[0].equals("storage") ) {
+			return null;
+		}
+		return segments[1];
+	}
+
 	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException {
 		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));			
 		return this.get(location);
 	}
+
+	/**
+	 * get()
+	 * 
+	 * Conditional get, i.e. if WBO has not been modified since cached copy the cached WBO is returned
+	 */
+	public WeaveBasicObject get(String collection, String id, WeaveBasicObject cached) throws WeaveException, NotFoundException {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));			
+		
+		if ( cached == null || cached.modified == null ) {
+			return this.get(location);
+		}
+		
+		try {
+			return decodeWeaveBasicObject(getJSONPayload(location, false, cached.modified));
+		} catch (NotModifiedException e) {
+			Log.getInstance().debug(String.format("WBO '%s/%s' not modified", collection, id));
+			return cached;
+		} catch (ClassCastException e) {
+			throw new WeaveException(e);
+		}
+	}
 	
 	public WeaveBasicObject get(String path) throws WeaveException, NotFoundException {
 		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", path)));
@@ -162,52 +447,60 @@ public abstract class StorageContext {
 
 		//parse request content to extract JSONUtils encoded WeaveBasicObject
 		try {
-			String id         = (String)jsonObject.get("id");
-			Double modified   = JSONUtils.toDouble(jsonObject.get("modified"));
-			Long sortindex    = (Long)jsonObject.get("sortindex");
-			String payload    = (String)jsonObject.get("payload");
-			Long ttl          = (Long)jsonObject.get("ttl");
-			
-			return new WeaveBasicObject(id, modified, sortindex, ttl, payload);
-			
+			return decodeWeaveBasicObject(jsonObject);
 		} catch (ClassCastException e) {
 			throw new WeaveException(e);
 		}
 	}
 
+	static WeaveBasicObject decodeWeaveBasicObject(JSONObject jsonObject) throws ClassCastException {
+		String id         = (String)jsonObject.get("id");
+		Double modified   = JSONUtils.toDouble(jsonObject.get("modified"));
+		Long sortindex    = (Long)jsonObject.get("sortindex");
+		String payload    = (String)jsonObject.get("payload");
+		Long ttl          = (Long)jsonObject.get("ttl");
+		
+		return new WeaveBasicObject(id, modified, sortindex, ttl, payload);
+	}
+
 	public JSONObject getJSONPayload(URI location) throws WeaveException, NotFoundException {
 		return getJSONPayload(location, false);
 	}
 
-	@SuppressWarnings("unchecked")
 	public JSONObject getJSONPayload(URI location, boolean isArray) throws WeaveException, NotFoundException {
+		try {
+			return getJSONPayload(location, isArray, null);
+		} catch (NotModifiedException e) {
+			//Not expected as request is unconditional
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * getJSONPayload()
+	 * 
+	 * Optionally send X-If-Modified-Since, in which case NotModifiedException is thrown if the
+	 * resource has not been modified since the given server timestamp
+	 */
+	public JSONObject getJSONPayload(URI location, boolean isArray, Double ifModifiedSince) throws WeaveException, NotFoundException, NotModifiedException {
 		Log.getInstance().debug( "getJSONPayload()");
 
 		JSONObject jsonObject = null;
 
-		HttpGet get = new HttpGet(location);
+		HttpGet get = buildGetRequest(location, ifModifiedSince);
 		CloseableHttpResponse response = null;
 
 		try {
 			response = httpClient.execute(get);
-			checkResponse(response);
-			
-			//parse request content to extract JSONUtils encoded WeaveBasicObject
-			JSONParser parser = new JSONParser();  
-			BufferedReader br = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-			if ( isArray ) {
-				JSONArray jsonArray = (JSONArray)parser.parse(br);
-				jsonObject = new JSONObject();
-				jsonObject.put(null, jsonArray);
-			} else {
-				jsonObject = (JSONObject)parser.parse(br);
-			}
+			jsonObject = parseJSONPayload(response, isArray);
 
 		} catch (IOException e) {
 			throw new WeaveException(e);
 		} catch (NotFoundException e) {
 			//NotFoundException extends HttpException so we need to catch and re-throw
 			throw e;
+		} catch (NotModifiedException e) {
+			throw e;
 		} catch (HttpException e) {
 			throw new WeaveException(e);
 		} catch (ParseException e) {  
@@ -221,7 +514,37 @@ public abstract class StorageContext {
 		return jsonObject;
 	}
 
-	private URI buildCollectionUri(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean full) throws WeaveException {
+	static HttpGet buildGetRequest(URI location, Double ifModifiedSince) {
+		HttpGet get = new HttpGet(location);
+		if ( ifModifiedSince != null ) {
+			get.setHeader(HEADER_IF_MODIFIED_SINCE, formatTimestamp(ifModifiedSince));
+		}
+		return get;
+	}
+
+	@SuppressWarnings("unchecked")
+	static JSONObject parseJSONPayload(HttpResponse response, boolean isArray) throws HttpException, IOException, ParseException {
+		checkResponse(response);
+
+		//parse request content to extract JSONUtils encoded WeaveBasicObject
+		JSONObject jsonObject = null;
+		JSONParser parser = new JSONParser();  
+		BufferedReader br = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+		if ( isArray ) {
+			JSONArray jsonArray = (JSONArray)parser.parse(br);
+			jsonObject = new JSONObject();
+			jsonObject.put(null, jsonArray);
+		} else {
+			jsonObject = (JSONObject)parser.parse(br);
+		}
+		return jsonObject;
+	}
+
+	URI buildCollectionUri(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, boolean full) throws WeaveException {
+		return buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, (offset == null ? null : offset.toString()), sort, format, full);
+	}
+
+	URI buildCollectionUri(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, String offset, String sort, String format, boolean full) throws WeaveException {
 
 		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
 		
@@ -253,7 +576,8 @@ public abstract class StorageContext {
 			params.add(new BasicNameValuePair("limit", limit.toString()));			
 		}
 		if (offset != null) {
-			params.add(new BasicNameValuePair("offset", offset.toString()));			
+			//Numeric offset for v1.1 or opaque X-Weave-Next-Offset token for v1.5
+			params.add(new BasicNameValuePair("offset", offset));			
 		}
 		if (sort != null) {
 			sort = sort.toLowerCase();
@@ -296,10 +620,13 @@ public abstract class StorageContext {
 	public String[] getCollectionIds(URI location) throws WeaveException, NotFoundException {
 		Log.getInstance().debug( "getCollectionIds()");
 		
+		//Get JSONUtils payload and extract JSONUtils array
+		return decodeCollectionIds(getJSONPayload(location, true));
+	}
+
+	static String[] decodeCollectionIds(JSONObject jsonTmp) throws WeaveException {
 		List<String> ids = new LinkedList<String>();
 		
-		//Get JSONUtils payload and extract JSONUtils array
-		JSONObject jsonTmp = getJSONPayload(location, true);
 		JSONArray jsonArray = (JSONArray)jsonTmp.get(null);
 
 		//Iterate through jsonArray and build list of ids
@@ -328,36 +655,199 @@ public abstract class StorageContext {
 	public WeaveBasicObject[] getCollection(URI location) throws WeaveException, NotFoundException {
 		Log.getInstance().debug( "getCollection()");
 		
-		List<WeaveBasicObject> listWbo = new LinkedList<WeaveBasicObject>();
+		final List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
 
-		//Get JSONUtils payload and extract JSONUtils array
-		JSONObject jsonTmp = getJSONPayload(location, true);
-		JSONArray jsonArray = (JSONArray)jsonTmp.get(null);
+		//Stream WBOs straight into list rather than building intermediate JSONArray
+		getCollection(location, new WeaveBasicObjectHandler() {
+			public void handle(WeaveBasicObject wbo) throws WeaveException {
+				listWbo.add(wbo);
+			}
+		});
+		
+		return listWbo.toArray(new WeaveBasicObject[0]);
+	}
+
+	/**
+	 * getCollection()
+	 * 
+	 * Conditional get, i.e. if collection has not been modified since ifModifiedSince, typically the
+	 * collection modified time from info/collections, the cached WBOs are returned
+	 */
+	public WeaveBasicObject[] getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, WeaveBasicObject[] cached, Double ifModifiedSince) throws WeaveException, NotFoundException {
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+
+		if ( cached == null || ifModifiedSince == null ) {
+			return getCollection(location);
+		}
 
-		//Iterate through jsonArray and build WBOs
+		List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
+
+		WeaveCollectionReader reader = null;
 		try {
-			@SuppressWarnings("unchecked")
-			Iterator<JSONObject> iterator = jsonArray.iterator();
-			while ( iterator.hasNext() ) {
-				JSONObject jsonObject = (JSONObject)iterator.next();
-				
-				String id         = (String)jsonObject.get("id");
-				Double modified   = JSONUtils.toDouble(jsonObject.get("modified"));
-				Long sortindex    = (Long)jsonObject.get("sortindex");
-				String payload    = (String)jsonObject.get("payload");
-				Long ttl          = (Long)jsonObject.get("ttl");
-				
-				listWbo.add(new WeaveBasicObject(id, modified, sortindex, ttl, payload));
-			}	
-		} catch (ClassCastException e) {
+			reader = getCollectionReader(location, ifModifiedSince);
+			while ( reader.hasNext() ) {
+				listWbo.add(reader.next());
+			}
+		} catch (NotModifiedException e) {
+			Log.getInstance().debug(String.format("Collection '%s' not modified", collection));
+			return cached;
+		} finally {
+			if ( reader != null ) {
+				reader.close();
+			}
+		}
+
+		return listWbo.toArray(new WeaveBasicObject[0]);
+	}
+
+	public int getCollection(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, WeaveBasicObjectHandler handler) throws WeaveException, NotFoundException {
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+		return getCollection(location, handler);
+	}
+
+	/**
+	 * getCollection()
+	 * 
+	 * Stream collection, passing each WBO to handler as it is parsed from the response
+	 * 
+	 * @return number of WBOs processed
+	 */
+	public int getCollection(URI location, WeaveBasicObjectHandler handler) throws WeaveException, NotFoundException {
+		Log.getInstance().debug( "getCollection()");
+
+		WeaveCollectionReader reader = getCollectionReader(location);
+		try {
+			while ( reader.hasNext() ) {
+				handler.handle(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		
+		return reader.getCount();
+	}
+
+	/**
+	 * getCollectionPage()
+	 * 
+	 * Get a single page of at most limit WBOs starting at offset. Use the offset returned with
+	 * the page to request the next page, which is null when there are no more pages.
+	 */
+	public WeaveCollectionPage getCollectionPage(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, int limit, String offset, String sort) throws WeaveException, NotFoundException {
+		Log.getInstance().debug( "getCollectionPage()");
+
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, null, true);
+		
+		return readCollectionPage(getCollectionReader(location), limit, offset);
+	}
+
+	/**
+	 * readCollectionPage()
+	 * 
+	 * Read page from collection response and close reader
+	 */
+	WeaveCollectionPage readCollectionPage(WeaveCollectionReader reader, int limit, String offset) throws WeaveException {
+		List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>(limit);
+		String nextOffsetHeader = null;
+		
+		try {
+			nextOffsetHeader = reader.getHeader(HEADER_NEXT_OFFSET);
+			while ( reader.hasNext() ) {
+				listWbo.add(reader.next());
+			}
+		} finally {
+			reader.close();
+		}
+		
+		String nextOffset = getNextOffset(offset, limit, listWbo.size(), nextOffsetHeader);
+		
+		return new WeaveCollectionPage(listWbo.toArray(new WeaveBasicObject[0]), offset, nextOffset);
+	}
+
+	/**
+	 * getNextOffset()
+	 * 
+	 * Calculate offset of next page. Storage API v1.1 uses numeric offsets, hence a short page
+	 * indicates there are no more records.
+	 */
+	protected String getNextOffset(String offset, int limit, int count, String nextOffsetHeader) throws WeaveException {
+		if ( count < limit ) {
+			return null;
+		}
+		
+		try {
+			int currOffset = (offset == null ? 0 : Integer.parseInt(offset));
+			return Integer.toString(currOffset + count);
+		} catch (NumberFormatException e) {
+			throw new WeaveException(String.format("Invalid collection offset '%s'", offset));
+		}
+	}
+
+	public WeaveCollectionCursor getCollectionCursor(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, int pageSize, boolean prefetch) throws WeaveException {
+		return new WeaveCollectionCursor(this, collection, ids, older, newer, index_above, index_below, sort, pageSize, prefetch);
+	}
+
+	public WeaveCollectionReader getCollectionReader(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format) throws WeaveException, NotFoundException {
+		URI location = buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+		return getCollectionReader(location);
+	}
+
+	/**
+	 * getCollectionReader()
+	 * 
+	 * Open collection for incremental reading. Caller MUST close the reader.
+	 */
+	public WeaveCollectionReader getCollectionReader(URI location) throws WeaveException, NotFoundException {
+		try {
+			return getCollectionReader(location, null);
+		} catch (NotModifiedException e) {
+			//Not expected as request is unconditional
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * getCollectionReader()
+	 * 
+	 * Optionally send X-If-Modified-Since, in which case NotModifiedException is thrown if the
+	 * collection has not been modified since the given server timestamp. Caller MUST close the reader.
+	 */
+	public WeaveCollectionReader getCollectionReader(URI location, Double ifModifiedSince) throws WeaveException, NotFoundException, NotModifiedException {
+		Log.getInstance().debug( "getCollectionReader()");
+
+		HttpGet get = buildGetRequest(location, ifModifiedSince);
+		CloseableHttpResponse response = null;
+		WeaveCollectionReader reader   = null;
+
+		try {
+			response = httpClient.execute(get);
+			checkResponse(response);
+			
+			reader = new WeaveCollectionReader(response);
+			
+		} catch (IOException e) {
 			throw new WeaveException(e);
+		} catch (NotFoundException e) {
+			//NotFoundException extends HttpException so we need to catch and re-throw
+			throw e;
+		} catch (NotModifiedException e) {
+			throw e;
+		} catch (HttpException e) {
+			throw new WeaveException(e);
+		} catch (GeneralSecurityException e) {
+			throw new WeaveException(e);
+		} finally {
+			//Response is owned by reader on success
+			if ( reader == null ) {
+				closeResponse(response);
+			}
 		}
 		
-		return listWbo.toArray(new WeaveBasicObject[0]);
+		return reader;
 	}
 
 	@SuppressWarnings("unchecked")
-	private String encodeWeaveBasicObject(WeaveBasicObject wbo) {
+	String encodeWeaveBasicObject(WeaveBasicObject wbo) {
 		JSONObject jobj = new JSONObject();
 		
 		jobj.put("id", wbo.id);
@@ -375,7 +865,7 @@ public abstract class StorageContext {
 		return jobj.toJSONString();
 	}
 
-	private Double parseModifiedResponse(String response) throws WeaveException {
+	Double parseModifiedResponse(String response) throws WeaveException {
 		
 		//Assume that modified response is JSON encoded
 		JSONParser parser = new JSONParser();
@@ -405,29 +895,42 @@ public abstract class StorageContext {
 	}
 
 	public Double put(URI location, WeaveBasicObject wbo) throws WeaveException {
+		try {
+			return put(location, wbo, null);
+		} catch (PreconditionFailedException e) {
+			//Not expected as request is unconditional
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * put()
+	 * 
+	 * Conditional put, i.e. PreconditionFailedException is thrown if the resource has been
+	 * modified on the server since ifUnmodifiedSince
+	 */
+	public Double put(String collection, String id, WeaveBasicObject wbo, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+		return put(location, wbo, ifUnmodifiedSince);
+	}
+
+	public Double put(URI location, WeaveBasicObject wbo, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
 		Log.getInstance().debug("put()");
 
 		Double modified = null;
 
-		HttpPut put = new HttpPut(location);
 		CloseableHttpResponse response = null;
 
 		try {
-			//Backwards compatible with android version of org.apache.http
-			StringEntity entityPut = new StringEntity(encodeWeaveBasicObject(wbo));
-			entityPut.setContentType("text/plain");
-			entityPut.setContentEncoding("UTF-8");
-			
-			put.setEntity(entityPut);
+			HttpPut put = buildPutRequest(location, wbo, ifUnmodifiedSince);
 
 			response = httpClient.execute(put);
-			checkResponse(response);
-
-			//parse request content to extract server modified time
-			modified = parseModifiedResponse(EntityUtils.toString(response.getEntity()));			
+			modified = processPutResponse(location, response);
 
 		} catch (IOException e) {
 			throw new WeaveException(e);
+		} catch (PreconditionFailedException e) {
+			throw e;
 		} catch (HttpException e) {
 			throw new WeaveException(e);
 		} catch (GeneralSecurityException e) {
@@ -439,6 +942,273 @@ public abstract class StorageContext {
 		return modified;
 	}
 
+	HttpPut buildPutRequest(URI location, WeaveBasicObject wbo, Double ifUnmodifiedSince) throws IOException {
+		HttpPut put = new HttpPut(location);
+
+		if ( ifUnmodifiedSince != null ) {
+			put.setHeader(HEADER_IF_UNMODIFIED_SINCE, formatTimestamp(ifUnmodifiedSince));
+		}
+
+		//Backwards compatible with android version of org.apache.http
+		StringEntity entityPut = new StringEntity(encodeWeaveBasicObject(wbo));
+		entityPut.setContentType("text/plain");
+		entityPut.setContentEncoding("UTF-8");
+		
+		put.setEntity(entityPut);
+		return put;
+	}
+
+	Double processPutResponse(URI location, HttpResponse response) throws WeaveException, HttpException, IOException {
+		checkResponse(response);
+
+		//parse request content to extract server modified time
+		Double modified = parseModifiedResponse(EntityUtils.toString(response.getEntity()));			
+
+		updateInfoCollections(getCollectionName(location), modified, false);
+		return modified;
+	}
+
+	/**
+	 * getServerLimits()
+	 * 
+	 * Upload limits used to size collection POST requests. Storage API v1.1 does not advertise limits.
+	 */
+	public WeaveServerLimits getServerLimits() throws WeaveException {
+		return new WeaveServerLimits();
+	}
+
+	/**
+	 * getServerLimitsLocation()
+	 * 
+	 * Location of server limits if they have to be downloaded before getServerLimits() can return
+	 * without a request, otherwise null
+	 */
+	URI getServerLimitsLocation() {
+		return null;
+	}
+
+	/**
+	 * setServerLimits()
+	 * 
+	 * Parse and cache server limits downloaded from getServerLimitsLocation(), jsonObject is null if
+	 * not found
+	 */
+	WeaveServerLimits setServerLimits(JSONObject jsonObject) throws WeaveException {
+		return getServerLimits();
+	}
+
+	/**
+	 * isBatchSupported()
+	 * 
+	 * Whether storage API supports atomic multi-request batch uploads, i.e. batch=true/commit=true
+	 */
+	public boolean isBatchSupported() {
+		return false;
+	}
+
+	public WeavePostResult postCollection(String collection, WeaveBasicObject[] wbos) throws WeaveException {
+		return postCollection(collection, wbos, false);
+	}
+
+	/**
+	 * postCollection()
+	 * 
+	 * Upload WBOs to collection in as few POST requests as server limits allow. If atomic is true
+	 * the upload is staged in a server side batch and only committed with the final request, hence
+	 * either all or none of the successful WBOs become visible.
+	 * 
+	 * @throws BatchNotSupportedException if atomic is true and the server does not support batches
+	 */
+	public WeavePostResult postCollection(String collection, WeaveBasicObject[] wbos, boolean atomic) throws WeaveException {
+		Log.getInstance().debug("postCollection()");
+
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+
+		WeavePostResult result = new WeavePostResult();
+		List<List<String>> chunks = planChunks(wbos, atomic, getServerLimits(), result);
+
+		//Batch id is 'true' until server has allocated a batch
+		String batch = ( atomic ? "true" : null );
+
+		try {
+			for (int i = 0; i < chunks.size(); i++) {
+				//Final chunk is sent with commit=true
+				boolean commit = ( atomic && i == chunks.size() - 1 );
+				batch = postChunk(location, chunks.get(i), batch, commit, result);
+			}
+		} finally {
+			//Chunks committed before a failure, e.g. BatchNotSupportedException, are visible
+			if ( result.getModified() != null ) {
+				updateInfoCollections(collection, result.getModified(), false);
+			}
+		}
+		
+		return result;
+	}
+
+	/**
+	 * planChunks()
+	 * 
+	 * Encode WBOs and split them into POST requests within server limits. WBOs whose payload exceeds
+	 * the record limit are added to result as failed.
+	 */
+	List<List<String>> planChunks(WeaveBasicObject[] wbos, boolean atomic, WeaveServerLimits limits, WeavePostResult result) throws WeaveException {
+		if ( atomic && !isBatchSupported() ) {
+			throw new BatchNotSupportedException(String.format("Atomic batch upload not supported by storage API version '%s'", WeaveClientFactory.apiVersionToString(version)));
+		}
+
+		if ( atomic && wbos.length > limits.maxTotalRecords ) {
+			throw new WeaveException(String.format("Batch of %d records exceeds server limit of %d", wbos.length, limits.maxTotalRecords));
+		}
+
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		List<String> records      = new ArrayList<String>();
+		long chunkBytes           = 2;
+		long totalBytes           = 0;
+		
+		for (int i = 0; i < wbos.length; i++) {
+			String record     = encodeWeaveBasicObject(wbos[i]);
+			long recordBytes  = record.getBytes(Constants.UTF8).length;
+			long payloadBytes = ( wbos[i].payload == null ? 0 : wbos[i].payload.getBytes(Constants.UTF8).length );
+
+			if ( payloadBytes > limits.maxRecordPayloadBytes ) {
+				result.addFailed(wbos[i].id, String.format("Payload exceeds server limit of %d bytes", limits.maxRecordPayloadBytes));
+				continue;
+			}
+
+			totalBytes += recordBytes;
+			if ( atomic && totalBytes > limits.maxTotalBytes ) {
+				throw new WeaveException(String.format("Batch exceeds server limit of %d bytes", limits.maxTotalBytes));
+			}
+		
+			if ( records.size() > 0 && (records.size() >= limits.maxPostRecords || chunkBytes + recordBytes + 1 > Math.min(limits.maxPostBytes, limits.maxRequestBytes)) ) {
+				chunks.add(records);
+				records    = new ArrayList<String>();
+				chunkBytes = 2;
+			}
+		
+			records.add(record);
+			chunkBytes += recordBytes + 1;
+		}
+	
+		if ( records.size() > 0 ) {
+			chunks.add(records);
+		}
+		
+		return chunks;
+	}
+
+	private String postChunk(URI location, List<String> records, String batch, boolean commit, WeavePostResult result) throws WeaveException {
+		CloseableHttpResponse response = null;
+
+		try {
+			response = httpClient.execute(buildChunkRequest(location, records, batch, commit));
+			return processChunkResponse(response, records, batch, commit, result);
+
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (HttpException e) {
+			throw new WeaveException(e);
+		} catch (GeneralSecurityException e) {
+			throw new WeaveException(e);
+		} finally {
+			closeResponse(response);
+		}
+	}
+
+	HttpPost buildChunkRequest(URI location, List<String> records, String batch, boolean commit) throws WeaveException {
+		Log.getInstance().debug(String.format("postChunk() - %d records, batch: %s, commit: %s", records.size(), batch, commit));
+
+		//Build request body, i.e. JSON array of pre-encoded WBOs
+		StringBuilder body = new StringBuilder("[");
+		String delim = "";
+		for (String record: records) {
+			body.append(delim).append(record);
+			delim = ",";
+		}
+		body.append("]");
+
+		try {
+			URIBuilder uri = new URIBuilder(location);
+			if ( batch != null ) {
+				uri.addParameter("batch", batch);
+				if ( commit ) {
+					uri.addParameter("commit", "true");
+				}
+			}
+			HttpPost post = new HttpPost(new URI(uri.toString()));
+
+			StringEntity entityPost = new StringEntity(body.toString(), "UTF-8");
+			entityPost.setContentType("application/json");
+			post.setEntity(entityPost);
+			return post;
+
+		} catch (URISyntaxException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * processChunkResponse()
+	 * 
+	 * Add success and failed ids to result and return batch id for next chunk, if any
+	 */
+	String processChunkResponse(HttpResponse response, List<String> records, String batch, boolean commit, WeavePostResult result) throws WeaveException, HttpException, IOException {
+		checkResponse(response);
+
+		JSONObject jsonObject = null;
+		try {
+			JSONParser parser = new JSONParser();
+			jsonObject = (JSONObject)parser.parse(EntityUtils.toString(response.getEntity(), "UTF-8"));
+		} catch (ParseException | ClassCastException e) {
+			throw new WeaveException("Invalid POST response - " + e.getMessage());
+		}
+
+		//parse request content to extract success and failed ids
+		try {
+			if ( jsonObject.containsKey("modified") ) {
+				result.setModified(JSONUtils.toDouble(jsonObject.get("modified")));
+			}
+
+			JSONArray success = (JSONArray)jsonObject.get("success");
+			if ( success != null ) {
+				for (Object id: success) {
+					result.addSuccess((String)id);
+				}
+			}
+
+			JSONObject failed = (JSONObject)jsonObject.get("failed");
+			if ( failed != null ) {
+				for (Object id: failed.keySet()) {
+					Object reason = failed.get(id);
+					if ( reason instanceof JSONArray ) {
+						reason = StringUtils.join((JSONArray)reason, ", ");
+					}
+					result.addFailed((String)id, String.valueOf(reason));
+				}
+			}
+		} catch (ClassCastException e) {
+			throw new WeaveException("Invalid POST response - " + e.getMessage());
+		}
+
+		if ( batch == null ) {
+			return null;
+		}
+		
+		if ( commit ) {
+			result.setCommitted(true);
+			return null;
+		}
+		
+		//Batch is only requested for atomic uploads. If the server ignored it this chunk has already been
+		//committed, but fail rather than commit the remaining chunks non-atomically
+		String batchId = (String)jsonObject.get("batch");
+		if ( batchId == null ) {
+			throw new BatchNotSupportedException(String.format("Server did not allocate a batch, %d records committed non-atomically", records.size()));
+		}
+		return batchId;
+	}
+
 	public Double delete(String collection, String id) throws WeaveException {
 		URI location = null;
 		if (id == null) {
@@ -450,7 +1220,30 @@ public abstract class StorageContext {
 	}
 	
 	public Double delete(URI location) throws WeaveException {
-		Log.getInstance().debug( "get()");
+		try {
+			return delete(location, null);
+		} catch (PreconditionFailedException e) {
+			//Not expected as request is unconditional
+			throw new WeaveException(e);
+		}
+	}
+
+	/**
+	 * delete()
+	 * 
+	 * Conditional delete, i.e. PreconditionFailedException is thrown if the resource has been
+	 * modified on the server since ifUnmodifiedSince
+	 */
+	public Double delete(String collection, String id, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		if (id == null) {
+			throw new WeaveException("Id parameter cannot be null");
+		}
+		URI location = this.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+		return delete(location, ifUnmodifiedSince);
+	}
+
+	public Double delete(URI location, Double ifUnmodifiedSince) throws WeaveException, PreconditionFailedException {
+		Log.getInstance().debug( "delete()");
 		
 		//parse request content to extract server modified time
 
@@ -463,14 +1256,14 @@ public abstract class StorageContext {
 			//@SuppressWarnings("unused")
 			//HttpEntity entity = httpClient.delete(location);
 			
-			del = new HttpDelete(location);
+			del = buildDeleteRequest(location, ifUnmodifiedSince);
 			response = httpClient.execute(del);
-			checkResponse(response);
-			
-			modified = parseModifiedResponse(EntityUtils.toString(response.getEntity()));
+			modified = processDeleteResponse(location, response);
 
 		} catch (IOException e) {
 			throw new WeaveException(e);
+		} catch (PreconditionFailedException e) {
+			throw e;
 		} catch (HttpException e) {
 			throw new WeaveException(e);
 		} catch (GeneralSecurityException e) {
@@ -482,6 +1275,27 @@ public abstract class StorageContext {
 		return modified;
 	}
 
+	static HttpDelete buildDeleteRequest(URI location, Double ifUnmodifiedSince) {
+		HttpDelete del = new HttpDelete(location);
+		if ( ifUnmodifiedSince != null ) {
+			del.setHeader(HEADER_IF_UNMODIFIED_SINCE, formatTimestamp(ifUnmodifiedSince));
+		}
+		return del;
+	}
+
+	Double processDeleteResponse(URI location, HttpResponse response) throws WeaveException, HttpException, IOException {
+		checkResponse(response);
+		
+		Double modified = parseModifiedResponse(EntityUtils.toString(response.getEntity()));
+
+		//Deleting collection without query parameters deletes collection
+		String collection = getCollectionName(location);
+		String path       = this.storageURL.relativize(location).getPath();
+		boolean isCollection = ( path.split("/").length == 2 && location.getRawQuery() == null );
+		updateInfoCollections(collection, modified, isCollection);
+		return modified;
+	}
+
 	public Double deleteCollection(String collection) throws WeaveException, NotFoundException {
 		return deleteCollection(collection, null, null, null, null, null, null);
 	}
@@ -504,7 +1318,7 @@ public abstract class StorageContext {
 		}
 	}
 	
-	private static void checkResponse(HttpResponse response) throws HttpException {
+	static void checkResponse(HttpResponse response) throws HttpException {
 		checkResponse(response.getStatusLine());
 	}
 	
@@ -516,6 +1330,8 @@ public abstract class StorageContext {
 		
 		String reason = code + " " + statusLine.getReasonPhrase();
 		switch (code) {
+		case HttpStatus.SC_NOT_MODIFIED:
+			throw new NotModifiedException(reason);
 		case HttpStatus.SC_NOT_FOUND:
 			throw new NotFoundException(reason);
 		case HttpStatus.SC_PRECONDITION_FAILED:
@@ -525,6 +1341,30 @@ public abstract class StorageContext {
 		}
 	}
 
+	/**
+	 * formatTimestamp()
+	 * 
+	 * Format server timestamp for use in X-If-Modified-Since and X-If-Unmodified-Since headers
+	 */
+	protected static String formatTimestamp(Double timestamp) {
+		return String.format(Locale.ROOT, "%.2f", timestamp.doubleValue());
+	}
+
+	private static Double getLastModified(Map<String, Double> colModified) {
+		if ( colModified == null ) {
+			return null;
+		}
+		
+		//info/collections is modified whenever any collection is modified
+		Double lastModified = null;
+		for (Double modified: colModified.values()) {
+			if ( modified != null && (lastModified == null || modified > lastModified) ) {
+				lastModified = modified;
+			}
+		}
+		return lastModified;
+	}
+
 	public void close() throws IOException {
 		httpClient.close();
 	}
@@ -0,0 +1,381 @@
+package org.exfio.weave.storage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.json.simple.JSONObject;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.client.PreconditionFailedException;
+import org.exfio.weave.net.HttpRequestFuture;
+import org.exfio.weave.util.URIUtils;
+
+/**
+ * StorageContextAsync
+ *
+ * Asynchronous counterpart to StorageContext. Each method returns immediately with a Future and
+ * optionally notifies a FutureCallback on completion, failure or cancellation.
+ *
+ * Requests are executed by the non-blocking client of the storage context's connection pool, hence
+ * no thread is held while a request is in flight. Callbacks are notified on an I/O dispatch thread and
+ * MUST NOT block, i.e. hand off any further blocking work to another executor.
+ *
+ */
+public class StorageContextAsync {
+
+	private StorageContext storageClient;
+
+	public StorageContextAsync(StorageContext storageClient) {
+		this.storageClient = storageClient;
+	}
+
+	public StorageContext getStorageContext() {
+		return storageClient;
+	}
+
+	public Future<Map<String, WeaveCollectionInfo>> getInfoCollectionsAsync(final boolean getcount, final boolean getusage, FutureCallback<Map<String, WeaveCollectionInfo>> callback) {
+		final HttpRequestFuture<Map<String, WeaveCollectionInfo>> future = new HttpRequestFuture<Map<String, WeaveCollectionInfo>>(callback);
+
+		URI location = storageClient.storageURL.resolve("info/collections");
+
+		Map<String, Double> cached = storageClient.getCachedInfoCollections(location);
+		if ( cached != null ) {
+			getCollectionCounts(future, StorageContext.buildCollectionInfo(cached), getcount, getusage);
+			return future;
+		}
+
+		final StorageContext.InfoCollectionsRequest request = storageClient.beginInfoCollectionsRequest(location);
+
+		execute(StorageContext.buildGetRequest(location, request.ifModifiedSince), new ResponseHandler<Map<String, WeaveCollectionInfo>>(future) {
+			void completed(HttpResponse response) throws Exception {
+				JSONObject jsonObject = null;
+				try {
+					jsonObject = StorageContext.parseJSONPayload(response, false);
+				} catch (NotModifiedException e) {
+					//Use cached copy
+				} catch (NotFoundException e) {
+					throw new WeaveException("info/collections record not found - " + e.getMessage());
+				}
+				Map<String, Double> colModified = storageClient.completeInfoCollectionsRequest(request, jsonObject);
+				getCollectionCounts(future, StorageContext.buildCollectionInfo(colModified), getcount, getusage);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * getCollectionCounts()
+	 *
+	 * Optionally get info/collection_counts then info/collection_usage and complete future
+	 */
+	private void getCollectionCounts(final HttpRequestFuture<Map<String, WeaveCollectionInfo>> future, final Map<String, WeaveCollectionInfo> wcols, final boolean getcount, final boolean getusage) {
+		if ( !getcount && !getusage ) {
+			future.completed(wcols);
+			return;
+		}
+
+		final String info = ( getcount ? "info/collection_counts" : "info/collection_usage" );
+		URI location = storageClient.storageURL.resolve(info);
+
+		execute(StorageContext.buildGetRequest(location, null), new ResponseHandler<Map<String, WeaveCollectionInfo>>(future) {
+			void completed(HttpResponse response) throws Exception {
+				JSONObject jsonObject = null;
+				try {
+					jsonObject = StorageContext.parseJSONPayload(response, false);
+				} catch (NotFoundException e) {
+					throw new WeaveException(info + " record not found - " + e.getMessage());
+				}
+				if ( getcount ) {
+					StorageContext.applyCollectionCounts(wcols, jsonObject);
+					getCollectionCounts(future, wcols, false, getusage);
+				} else {
+					StorageContext.applyCollectionUsage(wcols, jsonObject);
+					future.completed(wcols);
+				}
+			}
+		});
+	}
+
+	public Future<WeaveBasicObject> getAsync(String collection, String id) {
+		return getAsync(collection, id, null);
+	}
+
+	public Future<WeaveBasicObject> getAsync(String collection, String id, FutureCallback<WeaveBasicObject> callback) {
+		final HttpRequestFuture<WeaveBasicObject> future = new HttpRequestFuture<WeaveBasicObject>(callback);
+
+		URI location = storageClient.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+
+		execute(StorageContext.buildGetRequest(location, null), new ResponseHandler<WeaveBasicObject>(future) {
+			void completed(HttpResponse response) throws Exception {
+				future.completed(StorageContext.decodeWeaveBasicObject(StorageContext.parseJSONPayload(response, false)));
+			}
+		});
+
+		return future;
+	}
+
+	public Future<WeaveBasicObject[]> getCollectionAsync(String collection) {
+		return getCollectionAsync(collection, null, null, null, null, null, null, null, null, null, null);
+	}
+
+	public Future<WeaveBasicObject[]> getCollectionAsync(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, Integer limit, Integer offset, String sort, String format, FutureCallback<WeaveBasicObject[]> callback) {
+		final HttpRequestFuture<WeaveBasicObject[]> future = new HttpRequestFuture<WeaveBasicObject[]>(callback);
+
+		URI location = null;
+		try {
+			location = storageClient.buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, format, true);
+		} catch (WeaveException e) {
+			future.failed(e);
+			return future;
+		}
+
+		execute(StorageContext.buildGetRequest(location, null), new ResponseHandler<WeaveBasicObject[]>(future) {
+			void completed(HttpResponse response) throws Exception {
+				StorageContext.checkResponse(response);
+
+				List<WeaveBasicObject> listWbo = new ArrayList<WeaveBasicObject>();
+
+				WeaveCollectionReader reader = new WeaveCollectionReader(response);
+				try {
+					while ( reader.hasNext() ) {
+						listWbo.add(reader.next());
+					}
+				} finally {
+					reader.close();
+				}
+				future.completed(listWbo.toArray(new WeaveBasicObject[0]));
+			}
+		});
+
+		return future;
+	}
+
+	public Future<WeaveCollectionPage> getCollectionPageAsync(String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, final int limit, final String offset, String sort, FutureCallback<WeaveCollectionPage> callback) {
+		final HttpRequestFuture<WeaveCollectionPage> future = new HttpRequestFuture<WeaveCollectionPage>(callback);
+
+		URI location = null;
+		try {
+			location = storageClient.buildCollectionUri(collection, ids, older, newer, index_above, index_below, limit, offset, sort, null, true);
+		} catch (WeaveException e) {
+			future.failed(e);
+			return future;
+		}
+
+		execute(StorageContext.buildGetRequest(location, null), new ResponseHandler<WeaveCollectionPage>(future) {
+			void completed(HttpResponse response) throws Exception {
+				StorageContext.checkResponse(response);
+				future.completed(storageClient.readCollectionPage(new WeaveCollectionReader(response), limit, offset));
+			}
+		});
+
+		return future;
+	}
+
+	public Future<Double> putAsync(String collection, String id, WeaveBasicObject wbo) {
+		return putAsync(collection, id, wbo, null);
+	}
+
+	public Future<Double> putAsync(String collection, String id, WeaveBasicObject wbo, FutureCallback<Double> callback) {
+		final HttpRequestFuture<Double> future = new HttpRequestFuture<Double>(callback);
+
+		final URI location = storageClient.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id)));
+
+		HttpUriRequest put = null;
+		try {
+			put = storageClient.buildPutRequest(location, wbo, null);
+		} catch (IOException e) {
+			future.failed(new WeaveException(e));
+			return future;
+		}
+
+		execute(put, new ResponseHandler<Double>(future) {
+			void completed(HttpResponse response) throws Exception {
+				future.completed(storageClient.processPutResponse(location, response));
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * postCollectionAsync()
+	 *
+	 * See StorageContext.postCollection(). Chunks are sent one after the other, each as soon as the
+	 * response to the previous chunk has been received.
+	 */
+	public Future<WeavePostResult> postCollectionAsync(final String collection, final WeaveBasicObject[] wbos, final boolean atomic, FutureCallback<WeavePostResult> callback) {
+		final HttpRequestFuture<WeavePostResult> future = new HttpRequestFuture<WeavePostResult>(callback);
+
+		URI limitsLocation = storageClient.getServerLimitsLocation();
+		if ( limitsLocation == null ) {
+			try {
+				postChunks(future, collection, wbos, atomic, storageClient.getServerLimits());
+			} catch (WeaveException e) {
+				future.failed(e);
+			}
+			return future;
+		}
+
+		//Server limits have to be downloaded first
+		execute(StorageContext.buildGetRequest(limitsLocation, null), new ResponseHandler<WeavePostResult>(future) {
+			void completed(HttpResponse response) throws Exception {
+				JSONObject jsonObject = null;
+				try {
+					jsonObject = StorageContext.parseJSONPayload(response, false);
+				} catch (NotFoundException e) {
+					//Default limits
+				}
+				postChunks(future, collection, wbos, atomic, storageClient.setServerLimits(jsonObject));
+			}
+		});
+
+		return future;
+	}
+
+	private void postChunks(HttpRequestFuture<WeavePostResult> future, String collection, WeaveBasicObject[] wbos, boolean atomic, WeaveServerLimits limits) throws WeaveException {
+		URI location = storageClient.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s", collection)));
+
+		WeavePostResult result = new WeavePostResult();
+		List<List<String>> chunks = storageClient.planChunks(wbos, atomic, limits, result);
+
+		if ( chunks.size() == 0 ) {
+			future.completed(result);
+			return;
+		}
+
+		//Batch id is 'true' until server has allocated a batch
+		postChunk(future, collection, location, chunks, 0, ( atomic ? "true" : null ), atomic, result);
+	}
+
+	private void postChunk(final HttpRequestFuture<WeavePostResult> future, final String collection, final URI location, final List<List<String>> chunks, final int index, final String batch, final boolean atomic, final WeavePostResult result) throws WeaveException {
+		//Final chunk is sent with commit=true
+		final boolean commit = ( atomic && index == chunks.size() - 1 );
+
+		execute(storageClient.buildChunkRequest(location, chunks.get(index), batch, commit), new ResponseHandler<WeavePostResult>(future) {
+			void completed(HttpResponse response) throws Exception {
+				String nextBatch = storageClient.processChunkResponse(response, chunks.get(index), batch, commit, result);
+				if ( index + 1 < chunks.size() ) {
+					postChunk(future, collection, location, chunks, index + 1, nextBatch, atomic, result);
+				} else {
+					updateInfoCollections();
+					future.completed(result);
+				}
+			}
+
+			void failed(Exception e) {
+				//Chunks committed before a failure, e.g. BatchNotSupportedException, are visible
+				updateInfoCollections();
+				super.failed(e);
+			}
+
+			private void updateInfoCollections() {
+				if ( result.getModified() != null ) {
+					storageClient.updateInfoCollections(collection, result.getModified(), false);
+				}
+			}
+		});
+	}
+
+	public Future<Double> deleteAsync(String collection, String id) {
+		return deleteAsync(collection, id, null);
+	}
+
+	public Future<Double> deleteAsync(String collection, String id, FutureCallback<Double> callback) {
+		HttpRequestFuture<Double> future = new HttpRequestFuture<Double>(callback);
+
+		if ( id == null ) {
+			future.failed(new WeaveException("Id parameter cannot be null"));
+			return future;
+		}
+
+		return delete(future, storageClient.storageURL.resolve(URIUtils.sanitize(String.format("storage/%s/%s", collection, id))));
+	}
+
+	public Future<Double> deleteCollectionAsync(String collection, String[] ids, Double older, Double newer, Integer limit, Integer offset, String sort, FutureCallback<Double> callback) {
+		HttpRequestFuture<Double> future = new HttpRequestFuture<Double>(callback);
+
+		try {
+			return delete(future, storageClient.buildCollectionUri(collection, ids, older, newer, null, null, limit, offset, sort, null, false));
+		} catch (WeaveException e) {
+			future.failed(e);
+			return future;
+		}
+	}
+
+	private Future<Double> delete(final HttpRequestFuture<Double> future, final URI location) {
+		execute(StorageContext.buildDeleteRequest(location, null), new ResponseHandler<Double>(future) {
+			void completed(HttpResponse response) throws Exception {
+				future.completed(storageClient.processDeleteResponse(location, response));
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * ResponseHandler
+	 *
+	 * Process response on the I/O dispatch thread and either complete future or chain the next
+	 * request. Any exception fails the future.
+	 */
+	private abstract static class ResponseHandler<T> {
+		final HttpRequestFuture<T> future;
+
+		ResponseHandler(HttpRequestFuture<T> future) {
+			this.future = future;
+		}
+
+		abstract void completed(HttpResponse response) throws Exception;
+
+		void failed(Exception e) {
+			future.failed(e);
+		}
+	}
+
+	private void execute(HttpUriRequest request, final ResponseHandler<?> handler) {
+		try {
+			handler.future.setPending(storageClient.httpClient.executeAsync(request, new FutureCallback<HttpResponse>() {
+				public void completed(HttpResponse response) {
+					try {
+						handler.completed(response);
+					} catch (Exception e) {
+						handler.failed(toWeaveException(e));
+					}
+				}
+
+				public void failed(Exception e) {
+					handler.failed(toWeaveException(e));
+				}
+
+				public void cancelled() {
+					handler.future.cancel(true);
+				}
+			}));
+		} catch (IOException e) {
+			handler.failed(toWeaveException(e));
+		} catch (GeneralSecurityException e) {
+			handler.failed(toWeaveException(e));
+		}
+	}
+
+	/**
+	 * toWeaveException()
+	 *
+	 * Fail with the same exception types as the equivalent StorageContext method
+	 */
+	private static Exception toWeaveException(Exception e) {
+		if ( e instanceof WeaveException || e instanceof NotFoundException || e instanceof NotModifiedException || e instanceof PreconditionFailedException ) {
+			return e;
+		}
+		return new WeaveException(e);
+	}
+}
@@ -13,6 +13,7 @@ import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.exfio.weave.WeaveException;
 import org.exfio.weave.client.WeaveClientFactory.ApiVersion;
+import org.exfio.weave.net.HttpConnectionPool;
 
 public class StorageV1_1 extends StorageContext {
 	
@@ -21,7 +22,11 @@ public class StorageV1_1 extends StorageContext {
 	
 	
 	public StorageV1_1() throws WeaveException {
-		super();
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public StorageV1_1(HttpConnectionPool connectionPool) throws WeaveException {
+		super(connectionPool);
 		version    = ApiVersion.v1_1;
 		storageURL = null;
 		user       = null;
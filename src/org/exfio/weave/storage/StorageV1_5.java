@@ -6,17 +6,25 @@ import java.net.URISyntaxException;
 import org.mozilla.gecko.sync.net.AuthHeaderProvider;
 import org.mozilla.gecko.sync.net.HawkAuthHeaderProvider;
 import org.exfio.weave.WeaveException;
+import org.exfio.weave.net.HttpConnectionPool;
 import org.exfio.weave.util.Log;
+import org.json.simple.JSONObject;
 
 public class StorageV1_5 extends StorageContext {
 
 	private String hawkid;
 	private byte[] hawkkey;
+	private volatile WeaveServerLimits serverLimits;
 	
 	public StorageV1_5() throws WeaveException {
-		super();
-		hawkid  = null;
-		hawkkey = null;
+		this(HttpConnectionPool.getDefault());
+	}
+
+	public StorageV1_5(HttpConnectionPool connectionPool) throws WeaveException {
+		super(connectionPool);
+		hawkid       = null;
+		hawkkey      = null;
+		serverLimits = null;
 	}
 
 	@Override
@@ -35,12 +43,93 @@ public class StorageV1_5 extends StorageContext {
 		this.init(uriStorageURL, hawkid, hawkkey);
 	}
 	
+	/**
+	 * Storage API v1.5 returns an opaque next offset token in the X-Weave-Next-Offset header
+	 * if and only if there are further records available
+	 */
+	@Override
+	protected String getNextOffset(String offset, int limit, int count, String nextOffsetHeader) throws WeaveException {
+		return nextOffsetHeader;
+	}
+
+	@Override
+	public boolean isBatchSupported() {
+		return true;
+	}
+
+	/**
+	 * getServerLimits()
+	 * 
+	 * Get upload limits from info/configuration. Older servers do not support info/configuration
+	 * in which case default limits are used.
+	 */
+	@Override
+	public WeaveServerLimits getServerLimits() throws WeaveException {
+		if ( serverLimits != null ) {
+			return serverLimits;
+		}
+		
+		JSONObject jsonObject = null;
+		try {
+			jsonObject = getJSONPayload(getServerLimitsLocation());
+		} catch (NotFoundException e) {
+			//Default limits
+		}
+		
+		return setServerLimits(jsonObject);
+	}
+
+	@Override
+	URI getServerLimitsLocation() {
+		return ( serverLimits == null ? this.storageURL.resolve("info/configuration") : null );
+	}
+
+	@Override
+	WeaveServerLimits setServerLimits(JSONObject jsonObject) throws WeaveException {
+		WeaveServerLimits limits = new WeaveServerLimits();
+		
+		if ( jsonObject == null ) {
+			Log.getInstance().info("info/configuration not found, using default server limits");
+			serverLimits = limits;
+			return serverLimits;
+		}
+		
+		try {
+			if ( jsonObject.containsKey("max_request_bytes") ) {
+				limits.maxRequestBytes = (Long)jsonObject.get("max_request_bytes");
+			}
+			if ( jsonObject.containsKey("max_post_records") ) {
+				limits.maxPostRecords = (Long)jsonObject.get("max_post_records");
+			}
+			if ( jsonObject.containsKey("max_post_bytes") ) {
+				limits.maxPostBytes = (Long)jsonObject.get("max_post_bytes");
+			}
+			if ( jsonObject.containsKey("max_total_records") ) {
+				limits.maxTotalRecords = (Long)jsonObject.get("max_total_records");
+			}
+			if ( jsonObject.containsKey("max_total_bytes") ) {
+				limits.maxTotalBytes = (Long)jsonObject.get("max_total_bytes");
+			}
+			if ( jsonObject.containsKey("max_record_payload_bytes") ) {
+				limits.maxRecordPayloadBytes = (Long)jsonObject.get("max_record_payload_bytes");
+			}
+		} catch (ClassCastException e) {
+			throw new WeaveException("Invalid info/configuration response - " + e.getMessage());
+		}
+		
+		Log.getInstance().debug("Server limits: " + limits.toString());
+
+		serverLimits = limits;
+		return serverLimits;
+	}
+
 	public void init(URI storageURL, String hawkid, byte[] hawkkey) throws WeaveException {
 		Log.getInstance().debug("StorageV1_5.init()");
 		
-		this.storageURL = storageURL;
-		this.hawkid     = hawkid;
-		this.hawkkey    = hawkkey;
+		this.storageURL   = storageURL;
+		this.hawkid       = hawkid;
+		this.hawkkey      = hawkkey;
+		this.serverLimits = null;
 		
 		Log.getInstance().debug("Storage URL: " + this.storageURL.toString());
 		
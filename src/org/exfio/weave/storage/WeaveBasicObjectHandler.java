@@ -0,0 +1,16 @@
+package org.exfio.weave.storage;
+
+import org.exfio.weave.WeaveException;
+
+/**
+ * WeaveBasicObjectHandler
+ *
+ * Callback used by streaming collection requests. Each WBO is handed to the handler as soon as it
+ * has been parsed from the response, i.e. before the remainder of the collection has been received.
+ *
+ */
+public interface WeaveBasicObjectHandler {
+
+	public void handle(WeaveBasicObject wbo) throws WeaveException;
+
+}
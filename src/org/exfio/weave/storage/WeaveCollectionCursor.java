@@ -0,0 +1,198 @@
+package org.exfio.weave.storage;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.net.BackoffException;
+import org.exfio.weave.util.Log;
+
+/**
+ * WeaveCollectionCursor
+ *
+ * Iterate over a collection one page at a time using limit/offset. Storage API v1.5 offsets are
+ * taken from the X-Weave-Next-Offset response header, v1.1 offsets are numeric. For v1.1 a stable
+ * sort order should be specified as records modified between requests may otherwise be skipped.
+ *
+ * The offset is only advanced once a page has been received in full, hence a failed page is
+ * retried rather than restarting the whole collection. Optionally the next page is fetched in the
+ * background while the current page is consumed.
+ *
+ */
+public class WeaveCollectionCursor {
+
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	public static final String DEFAULT_SORT   = "oldest";
+	public static final int PAGE_RETRY_COUNT  = 3;
+
+	private static ExecutorService executor = null;
+
+	private StorageContext storageClient;
+	private String collection;
+	private String[] ids;
+	private Double older;
+	private Double newer;
+	private Integer index_above;
+	private Integer index_below;
+	private String sort;
+	private int pageSize;
+	private boolean prefetch;
+
+	private WeaveBasicObject[] page;
+	private int pageIndex;
+	private String offset;
+	private boolean lastPage;
+	private int count;
+	private Future<WeaveCollectionPage> pending;
+
+	public WeaveCollectionCursor(StorageContext storageClient, String collection, String[] ids, Double older, Double newer, Integer index_above, Integer index_below, String sort, int pageSize, boolean prefetch) throws WeaveException {
+		if ( pageSize <= 0 ) {
+			throw new WeaveException(String.format("Invalid page size '%d'", pageSize));
+		}
+
+		this.storageClient = storageClient;
+		this.collection    = collection;
+		this.ids           = ids;
+		this.older         = older;
+		this.newer         = newer;
+		this.index_above   = index_above;
+		this.index_below   = index_below;
+		this.sort          = sort;
+		this.pageSize      = pageSize;
+		this.prefetch      = prefetch;
+
+		this.page      = null;
+		this.pageIndex = 0;
+		this.offset    = null;
+		this.lastPage  = false;
+		this.count     = 0;
+		this.pending   = null;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if ( executor == null ) {
+			BasicThreadFactory factory = new BasicThreadFactory.Builder()
+				.namingPattern("weavecursor-%d")
+				.daemon(true)
+				.build();
+			executor = Executors.newCachedThreadPool(factory);
+		}
+		return executor;
+	}
+
+	public boolean hasNext() throws WeaveException, NotFoundException {
+		while ( page == null || pageIndex >= page.length ) {
+			if ( lastPage ) {
+				return false;
+			}
+			nextPage();
+		}
+		return true;
+	}
+
+	public WeaveBasicObject next() throws WeaveException, NotFoundException {
+		if ( !hasNext() ) {
+			throw new WeaveException("No more objects in collection");
+		}
+		WeaveBasicObject wbo = page[pageIndex];
+
+		//Release reference as soon as WBO has been consumed
+		page[pageIndex++] = null;
+		count++;
+
+		return process(wbo);
+	}
+
+	/**
+	 * process()
+	 *
+	 * Hook to transform each WBO before it is returned, e.g. decrypt
+	 */
+	protected WeaveBasicObject process(WeaveBasicObject wbo) throws WeaveException {
+		return wbo;
+	}
+
+	/**
+	 * Offset of the next page to be fetched. Can be used to resume iteration with a new cursor.
+	 */
+	public String getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Number of WBOs returned by next() so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public void close() {
+		lastPage = true;
+		page     = null;
+		if ( pending != null ) {
+			pending.cancel(true);
+			pending = null;
+		}
+	}
+
+	private void nextPage() throws WeaveException, NotFoundException {
+		WeaveCollectionPage result = null;
+
+		if ( pending != null ) {
+			try {
+				result = pending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new WeaveException(e);
+			} catch (ExecutionException e) {
+				//Prefetch failed, retry synchronously
+				Log.getInstance().warn(String.format("Couldn't prefetch page at offset '%s' for collection '%s' - %s", offset, collection, e.getCause().getMessage()));
+				result = null;
+			} finally {
+				pending = null;
+			}
+		}
+
+		if ( result == null ) {
+			result = fetchPage(offset);
+		}
+
+		page      = result.getWbos();
+		pageIndex = 0;
+		offset    = result.getNextOffset();
+		lastPage  = result.isLastPage();
+
+		if ( prefetch && !lastPage ) {
+			final String prefetchOffset = offset;
+			pending = getExecutor().submit(new Callable<WeaveCollectionPage>() {
+				public WeaveCollectionPage call() throws Exception {
+					return fetchPage(prefetchOffset);
+				}
+			});
+		}
+	}
+
+	private WeaveCollectionPage fetchPage(String pageOffset) throws WeaveException, NotFoundException {
+		Log.getInstance().debug(String.format("Fetching page at offset '%s' for collection '%s'", pageOffset, collection));
+
+		int attempt = 0;
+		while ( true ) {
+			try {
+				return storageClient.getCollectionPage(collection, ids, older, newer, index_above, index_below, pageSize, pageOffset, sort);
+			} catch (WeaveException e) {
+				//Only retry network errors. Requests to a node in backoff fail without reaching the server,
+				//hence retrying immediately would only fail again
+				if ( !(e.getCause() instanceof IOException) || e.getCause() instanceof BackoffException || ++attempt >= PAGE_RETRY_COUNT ) {
+					throw e;
+				}
+				Log.getInstance().warn(String.format("Retrying page at offset '%s' for collection '%s' - %s", pageOffset, collection, e.getMessage()));
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package org.exfio.weave.storage;
+
+import lombok.Getter;
+
+public class WeaveCollectionPage {
+	@Getter protected WeaveBasicObject[] wbos;
+	@Getter protected String offset;
+	@Getter protected String nextOffset;
+
+	public WeaveCollectionPage(WeaveBasicObject[] wbos, String offset, String nextOffset) {
+		this.wbos       = wbos;
+		this.offset     = offset;
+		this.nextOffset = nextOffset;
+	}
+
+	public boolean isLastPage() {
+		return ( nextOffset == null );
+	}
+}
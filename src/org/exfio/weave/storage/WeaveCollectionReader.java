@@ -0,0 +1,216 @@
+package org.exfio.weave.storage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedList;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import org.exfio.weave.Constants;
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.net.HttpClient;
+import org.exfio.weave.util.Log;
+
+/**
+ * WeaveCollectionReader
+ *
+ * Incrementally parse a JSON encoded array of WBOs from a collection response. Only the current
+ * element is held in memory, hence memory usage is independent of the size of the collection.
+ *
+ * The reader owns the underlying HTTP response and MUST be closed once the caller is done with it.
+ * Responses of the non-blocking client are buffered in full, hence closing them is a no-op.
+ *
+ */
+public class WeaveCollectionReader {
+
+	private HttpResponse response;
+	private BufferedReader reader;
+	private JSONParser parser;
+	private ElementHandler handler;
+
+	private WeaveBasicObject next;
+	private boolean finished;
+	private int count;
+
+	WeaveCollectionReader(HttpResponse response) throws IOException {
+		this.response = response;
+		this.reader   = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), Constants.UTF8));
+		this.parser   = new JSONParser();
+		this.handler  = new ElementHandler();
+		this.next     = null;
+		this.finished = false;
+		this.count    = 0;
+	}
+
+	public boolean hasNext() throws WeaveException {
+		if ( next == null && !finished ) {
+			next = readNext();
+		}
+		return ( next != null );
+	}
+
+	public WeaveBasicObject next() throws WeaveException {
+		if ( !hasNext() ) {
+			throw new WeaveException("No more objects in collection");
+		}
+		WeaveBasicObject wbo = next;
+		next = null;
+		count++;
+		return wbo;
+	}
+
+	/**
+	 * Get value of response header or null if header not present
+	 */
+	public String getHeader(String name) {
+		Header header = response.getFirstHeader(name);
+		return ( header == null ? null : header.getValue() );
+	}
+
+	/**
+	 * Number of WBOs returned by next() so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private WeaveBasicObject readNext() throws WeaveException {
+		Object element = null;
+
+		try {
+			//Parser is paused by handler as soon as an array element has been completed
+			parser.parse(reader, handler, true);
+			element = handler.takeElement();
+		} catch (IOException e) {
+			throw new WeaveException(e);
+		} catch (ParseException e) {
+			throw new WeaveException(e);
+		}
+
+		if ( element == null ) {
+			finished = true;
+			close();
+			return null;
+		}
+
+		try {
+			return StorageContext.decodeWeaveBasicObject((JSONObject)element);
+		} catch (ClassCastException e) {
+			throw new WeaveException(e);
+		}
+	}
+
+	public void close() {
+		finished = true;
+		if ( response instanceof CloseableHttpResponse ) {
+			HttpClient.closeResponse((CloseableHttpResponse)response);
+		}
+		try {
+			reader.close();
+		} catch (IOException e) {
+			//fail quietly
+			Log.getInstance().error("Couldn't close collection reader - " + e.getMessage());
+		}
+	}
+
+	/**
+	 * ElementHandler
+	 *
+	 * json-simple SAX style content handler that builds one top level array element at a time
+	 * and pauses the parser once the element is complete
+	 */
+	private static class ElementHandler implements ContentHandler {
+
+		private LinkedList<Object> values = new LinkedList<Object>();
+		private LinkedList<String> keys   = new LinkedList<String>();
+		private int depth      = 0;
+		private Object element = null;
+
+		public Object takeElement() {
+			Object tmp = element;
+			element = null;
+			return tmp;
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean addValue(Object value) {
+			if ( depth == 1 ) {
+				//Array element complete, pause parser
+				element = value;
+				return false;
+			}
+
+			Object parent = values.getFirst();
+			if ( parent instanceof JSONObject ) {
+				((JSONObject)parent).put(keys.getFirst(), value);
+			} else {
+				((JSONArray)parent).add(value);
+			}
+			return true;
+		}
+
+		public void startJSON() throws ParseException, IOException {
+			depth = 0;
+		}
+
+		public void endJSON() throws ParseException, IOException {
+		}
+
+		public boolean startObject() throws ParseException, IOException {
+			if ( depth == 0 ) {
+				//Collection responses MUST be a JSON array
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+			}
+			depth++;
+			values.addFirst(new JSONObject());
+			return true;
+		}
+
+		public boolean endObject() throws ParseException, IOException {
+			depth--;
+			return addValue(values.removeFirst());
+		}
+
+		public boolean startObjectEntry(String key) throws ParseException, IOException {
+			keys.addFirst(key);
+			return true;
+		}
+
+		public boolean endObjectEntry() throws ParseException, IOException {
+			keys.removeFirst();
+			return true;
+		}
+
+		public boolean startArray() throws ParseException, IOException {
+			depth++;
+			if ( depth > 1 ) {
+				values.addFirst(new JSONArray());
+			}
+			return true;
+		}
+
+		public boolean endArray() throws ParseException, IOException {
+			depth--;
+			if ( depth == 0 ) {
+				//End of collection
+				return true;
+			}
+			return addValue(values.removeFirst());
+		}
+
+		public boolean primitive(Object value) throws ParseException, IOException {
+			if ( depth == 0 ) {
+				throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN);
+			}
+			return addValue(value);
+		}
+	}
+}
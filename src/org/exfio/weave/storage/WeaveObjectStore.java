@@ -0,0 +1,420 @@
+package org.exfio.weave.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.exfio.weave.WeaveException;
+import org.exfio.weave.util.Log;
+
+/**
+ * WeaveObjectStore
+ *
+ * Persistent local copy of WBOs keyed by (collection, id) along with the server modified time of each
+ * collection as at the last refresh, i.e. the high-water mark. A refresh only downloads WBOs modified
+ * since the high-water mark using newer=, hence in steady state only changed WBOs are transferred.
+ *
+ * WBOs are stored as received from the server, i.e. payloads remain encrypted at rest.
+ *
+ */
+public class WeaveObjectStore {
+
+	public static final int QUERY_TIMEOUT = 10;
+	public static final int BATCH_SIZE    = 500;
+
+	private Connection db;
+
+	public WeaveObjectStore(Connection db) throws WeaveException {
+		this(db, false);
+	}
+
+	public WeaveObjectStore(Connection db, boolean force) throws WeaveException {
+		this.db = db;
+		try {
+			initDB(db, force);
+		} catch (SQLException e) {
+			throw new WeaveException("Couldn't initialise object store - " + e.getMessage());
+		}
+	}
+
+	public static void initDB(Connection db, boolean force) throws SQLException {
+
+		String SQL = null;
+
+		Statement st = db.createStatement();
+		st.setQueryTimeout(QUERY_TIMEOUT);
+
+		try {
+			//Create WeaveCollection table
+			if ( force ) st.executeUpdate("DROP TABLE IF EXISTS WeaveCollection");
+
+			SQL = "CREATE TABLE IF NOT EXISTS WeaveCollection"
+				+ "\n"
+				+ "("
+				+ " Collection TEXT PRIMARY KEY NOT NULL"
+				+ " ,Modified REAL NOT NULL"
+				+ " ,ModifiedDate TEXT NOT NULL DEFAULT CURRENT_TIMESTAMP"
+				+ ")";
+			st.executeUpdate(SQL);
+
+			//Create WeaveObject table
+			if ( force ) st.executeUpdate("DROP TABLE IF EXISTS WeaveObject");
+
+			SQL = "CREATE TABLE IF NOT EXISTS WeaveObject"
+				+ "\n"
+				+ "("
+				+ " Collection TEXT NOT NULL"
+				+ " ,ID TEXT NOT NULL"
+				+ " ,Modified REAL"
+				+ " ,SortIndex INTEGER"
+				+ " ,TTL INTEGER"
+				+ " ,Payload TEXT"
+				+ " ,PRIMARY KEY (Collection, ID)"
+				+ ")";
+			st.executeUpdate(SQL);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * getModified()
+	 *
+	 * Collection high-water mark or null if collection has not been stored
+	 */
+	public Double getModified(String collection) throws WeaveException {
+		String SQL = "SELECT Modified FROM WeaveCollection WHERE Collection = ?";
+
+		try {
+			PreparedStatement st = db.prepareStatement(SQL);
+			st.setQueryTimeout(QUERY_TIMEOUT);
+			try {
+				st.setString(1, collection);
+
+				ResultSet rs = st.executeQuery();
+				if ( !rs.next() ) {
+					return null;
+				}
+				return rs.getDouble("Modified");
+			} finally {
+				st.close();
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't get modified for collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	public WeaveBasicObject get(String collection, String id) throws WeaveException, NotFoundException {
+		String SQL = "SELECT ID, Modified, SortIndex, TTL, Payload FROM WeaveObject WHERE Collection = ? AND ID = ?";
+
+		try {
+			PreparedStatement st = db.prepareStatement(SQL);
+			st.setQueryTimeout(QUERY_TIMEOUT);
+			try {
+				st.setString(1, collection);
+				st.setString(2, id);
+
+				ResultSet rs = st.executeQuery();
+				if ( !rs.next() ) {
+					throw new NotFoundException(String.format("WBO '%s/%s' not found in object store", collection, id));
+				}
+				return mapWeaveBasicObject(rs);
+			} finally {
+				st.close();
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't get WBO '%s/%s' - %s", collection, id, e.getMessage()));
+		}
+	}
+
+	public WeaveBasicObject[] getCollection(String collection) throws WeaveException {
+		String SQL = "SELECT ID, Modified, SortIndex, TTL, Payload FROM WeaveObject WHERE Collection = ? ORDER BY Modified";
+
+		List<WeaveBasicObject> listWbo = new LinkedList<WeaveBasicObject>();
+
+		try {
+			PreparedStatement st = db.prepareStatement(SQL);
+			st.setQueryTimeout(QUERY_TIMEOUT);
+			try {
+				st.setString(1, collection);
+
+				ResultSet rs = st.executeQuery();
+				while ( rs.next() ) {
+					listWbo.add(mapWeaveBasicObject(rs));
+				}
+			} finally {
+				st.close();
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't get collection '%s' - %s", collection, e.getMessage()));
+		}
+
+		return listWbo.toArray(new WeaveBasicObject[0]);
+	}
+
+	/**
+	 * refresh()
+	 *
+	 * Bring local copy of collection up to date with server
+	 *
+	 * @param storageClient
+	 * @param collection
+	 * @param infoCollections result of getInfoCollections()
+	 * @param prune remove WBOs deleted on the server, which requires downloading the list of ids
+	 * @return number of WBOs downloaded
+	 */
+	public int refresh(StorageContext storageClient, String collection, Map<String, WeaveCollectionInfo> infoCollections, boolean prune) throws WeaveException {
+		Log.getInstance().debug("refresh()");
+
+		Double localModified  = getModified(collection);
+		Double serverModified = null;
+		if ( infoCollections.containsKey(collection) ) {
+			serverModified = infoCollections.get(collection).getModified();
+		}
+
+		if ( serverModified == null ) {
+			//Collection does not exist on server
+			if ( localModified != null ) {
+				Log.getInstance().debug(String.format("Collection '%s' deleted on server", collection));
+				clear(collection);
+			}
+			return 0;
+		}
+
+		Double newer = localModified;
+		if ( localModified != null ) {
+			if ( serverModified.equals(localModified) ) {
+				Log.getInstance().debug(String.format("Collection '%s' not modified", collection));
+				return 0;
+			} else if ( serverModified < localModified ) {
+				//Server data has been reset, i.e. download collection in full
+				Log.getInstance().warn(String.format("Collection '%s' older than local copy, refreshing in full", collection));
+				newer = null;
+			}
+		}
+
+		boolean autoCommit = true;
+		int count = 0;
+
+		try {
+			autoCommit = db.getAutoCommit();
+			db.setAutoCommit(false);
+
+			if ( newer == null ) {
+				deleteObjects(collection);
+			}
+
+			final String sqlCollection = collection;
+			final PreparedStatement st = prepareUpsert();
+			try {
+				count = storageClient.getCollection(collection, null, null, newer, null, null, null, null, null, null, new WeaveBasicObjectHandler() {
+					private int pending = 0;
+
+					public void handle(WeaveBasicObject wbo) throws WeaveException {
+						try {
+							addUpsert(st, sqlCollection, wbo);
+							if ( ++pending >= BATCH_SIZE ) {
+								st.executeBatch();
+								pending = 0;
+							}
+						} catch (SQLException e) {
+							throw new WeaveException(String.format("Couldn't store WBO '%s/%s' - %s", sqlCollection, wbo.getId(), e.getMessage()));
+						}
+					}
+				});
+				st.executeBatch();
+			} finally {
+				st.close();
+			}
+
+			if ( prune && newer != null ) {
+				String[] ids = storageClient.getCollectionIds(collection, null, null, null, null, null, null, null, null);
+				pruneObjects(collection, new HashSet<String>(Arrays.asList(ids)));
+			}
+
+			setModified(collection, serverModified);
+
+			db.commit();
+
+		} catch (SQLException e) {
+			rollback();
+			throw new WeaveException(String.format("Couldn't refresh collection '%s' - %s", collection, e.getMessage()));
+		} catch (NotFoundException e) {
+			//Collection deleted since info/collections was requested
+			rollback();
+			throw new WeaveException(String.format("Couldn't refresh collection '%s' - %s", collection, e.getMessage()));
+		} catch (WeaveException e) {
+			rollback();
+			throw e;
+		} catch (RuntimeException e) {
+			rollback();
+			throw e;
+		} finally {
+			try {
+				db.setAutoCommit(autoCommit);
+			} catch (SQLException e) {
+				Log.getInstance().error("Couldn't restore auto commit - " + e.getMessage());
+			}
+		}
+
+		Log.getInstance().debug(String.format("Refreshed %d WBOs in collection '%s'", count, collection));
+
+		return count;
+	}
+
+	/**
+	 * clear()
+	 *
+	 * Remove local copy of collection
+	 */
+	public void clear(String collection) throws WeaveException {
+		try {
+			deleteObjects(collection);
+
+			PreparedStatement st = db.prepareStatement("DELETE FROM WeaveCollection WHERE Collection = ?");
+			st.setQueryTimeout(QUERY_TIMEOUT);
+			try {
+				st.setString(1, collection);
+				st.executeUpdate();
+			} finally {
+				st.close();
+			}
+		} catch (SQLException e) {
+			throw new WeaveException(String.format("Couldn't clear collection '%s' - %s", collection, e.getMessage()));
+		}
+	}
+
+	private void setModified(String collection, Double modified) throws SQLException {
+		String SQL = "REPLACE INTO WeaveCollection"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,Modified"
+			+ " ,ModifiedDate"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, CURRENT_TIMESTAMP)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		try {
+			st.setString(1, collection);
+			st.setDouble(2, modified);
+			st.executeUpdate();
+		} finally {
+			st.close();
+		}
+	}
+
+	private PreparedStatement prepareUpsert() throws SQLException {
+		String SQL = "REPLACE INTO WeaveObject"
+			+ "\n"
+			+ "("
+			+ " Collection"
+			+ " ,ID"
+			+ " ,Modified"
+			+ " ,SortIndex"
+			+ " ,TTL"
+			+ " ,Payload"
+			+ ")"
+			+ "\n"
+			+ "VALUES(?, ?, ?, ?, ?, ?)";
+
+		PreparedStatement st = db.prepareStatement(SQL);
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		return st;
+	}
+
+	private static void addUpsert(PreparedStatement st, String collection, WeaveBasicObject wbo) throws SQLException {
+		int col = 1;
+		st.setString(col++, collection);
+		st.setString(col++, wbo.getId());
+		st.setObject(col++, wbo.getModified());
+		st.setObject(col++, wbo.getSortindex());
+		st.setObject(col++, wbo.getTtl());
+		st.setString(col++, wbo.getPayload());
+		st.addBatch();
+	}
+
+	private void deleteObjects(String collection) throws SQLException {
+		PreparedStatement st = db.prepareStatement("DELETE FROM WeaveObject WHERE Collection = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		try {
+			st.setString(1, collection);
+			st.executeUpdate();
+		} finally {
+			st.close();
+		}
+	}
+
+	private void pruneObjects(String collection, Set<String> serverIds) throws SQLException {
+		List<String> deleted = new LinkedList<String>();
+
+		PreparedStatement st = db.prepareStatement("SELECT ID FROM WeaveObject WHERE Collection = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		try {
+			st.setString(1, collection);
+			ResultSet rs = st.executeQuery();
+			while ( rs.next() ) {
+				String id = rs.getString("ID");
+				if ( !serverIds.contains(id) ) {
+					deleted.add(id);
+				}
+			}
+		} finally {
+			st.close();
+		}
+
+		if ( deleted.isEmpty() ) {
+			return;
+		}
+
+		Log.getInstance().debug(String.format("Pruning %d WBOs deleted from collection '%s'", deleted.size(), collection));
+
+		st = db.prepareStatement("DELETE FROM WeaveObject WHERE Collection = ? AND ID = ?");
+		st.setQueryTimeout(QUERY_TIMEOUT);
+		try {
+			for (String id: deleted) {
+				st.setString(1, collection);
+				st.setString(2, id);
+				st.addBatch();
+			}
+			st.executeBatch();
+		} finally {
+			st.close();
+		}
+	}
+
+	private void rollback() {
+		try {
+			db.rollback();
+		} catch (SQLException e) {
+			Log.getInstance().error("Couldn't rollback object store transaction - " + e.getMessage());
+		}
+	}
+
+	private static WeaveBasicObject mapWeaveBasicObject(ResultSet rs) throws SQLException {
+		String id = rs.getString("ID");
+
+		Double modified = rs.getDouble("Modified");
+		if ( rs.wasNull() ) modified = null;
+
+		Long sortindex = rs.getLong("SortIndex");
+		if ( rs.wasNull() ) sortindex = null;
+
+		Long ttl = rs.getLong("TTL");
+		if ( rs.wasNull() ) ttl = null;
+
+		String payload = rs.getString("Payload");
+
+		return new WeaveBasicObject(id, modified, sortindex, ttl, payload);
+	}
+}
@@ -0,0 +1,52 @@
+package org.exfio.weave.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * WeavePostResult
+ *
+ * Aggregated result of one or more collection POST requests, i.e. ids successfully written
+ * and ids that failed along with the reason reported by the server
+ */
+@ToString
+public class WeavePostResult {
+	@Getter protected Double modified;
+	@Getter protected List<String> success;
+	@Getter protected Map<String, String> failed;
+	@Getter protected boolean committed;
+
+	public WeavePostResult() {
+		this.modified  = null;
+		this.success   = new ArrayList<String>();
+		this.failed    = new HashMap<String, String>();
+		this.committed = false;
+	}
+
+	protected void addSuccess(String id) {
+		success.add(id);
+	}
+
+	protected void addFailed(String id, String reason) {
+		failed.put(id, reason);
+	}
+
+	protected void setModified(Double modified) {
+		if ( modified != null && (this.modified == null || modified > this.modified) ) {
+			this.modified = modified;
+		}
+	}
+
+	protected void setCommitted(boolean committed) {
+		this.committed = committed;
+	}
+
+	public boolean hasFailures() {
+		return ( failed.size() > 0 );
+	}
+}
@@ -0,0 +1,26 @@
+package org.exfio.weave.storage;
+
+import lombok.ToString;
+
+/**
+ * WeaveServerLimits
+ *
+ * Upload limits advertised by info/configuration (Storage API v1.5) or defaults
+ */
+@ToString
+public class WeaveServerLimits {
+
+	public static final long DEFAULT_MAX_REQUEST_BYTES        = 2 * 1024 * 1024 + 4096;
+	public static final long DEFAULT_MAX_POST_RECORDS         = 100;
+	public static final long DEFAULT_MAX_POST_BYTES           = 2 * 1024 * 1024;
+	public static final long DEFAULT_MAX_TOTAL_RECORDS        = 10000;
+	public static final long DEFAULT_MAX_TOTAL_BYTES          = 100 * 1024 * 1024;
+	public static final long DEFAULT_MAX_RECORD_PAYLOAD_BYTES = 256 * 1024;
+
+	public long maxRequestBytes       = DEFAULT_MAX_REQUEST_BYTES;
+	public long maxPostRecords        = DEFAULT_MAX_POST_RECORDS;
+	public long maxPostBytes          = DEFAULT_MAX_POST_BYTES;
+	public long maxTotalRecords       = DEFAULT_MAX_TOTAL_RECORDS;
+	public long maxTotalBytes         = DEFAULT_MAX_TOTAL_BYTES;
+	public long maxRecordPayloadBytes = DEFAULT_MAX_RECORD_PAYLOAD_BYTES;
+}